@@ -14,17 +14,39 @@
  */
 package com.amazon.dtasdk.serializer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserSequence;
+import com.fasterxml.jackson.databind.BeanDescription;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 public class JacksonSerializer {
     private static final Log log = LogFactory.getLog(JacksonSerializer.class);
 
+    /** Buffers that grew beyond this size while encoding a large object are not kept for the next one */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private static final ThreadLocal<EncodingBuffer> buffers = new ThreadLocal<EncodingBuffer>();
+
     private ObjectMapper objectMapper;
 
+    /** The encoding of the classes seen by {@link #encodeCached(Object)}, null values for classes it cannot cache */
+    private final ConcurrentHashMap<Class<?>, CachedClass> cachedClasses =
+            new ConcurrentHashMap<Class<?>, CachedClass>();
+
     public JacksonSerializer() {
         objectMapper = new ObjectMapper();
     }
@@ -45,6 +67,100 @@ public class JacksonSerializer {
         return writer.toString();
     }
 
+    /**
+     * Serializes an object as UTF-8 JSON into a buffer of the current thread, without going through a String. The
+     * buffer is reset by the next call on the same thread, so its content must be consumed before that, typically with
+     * {@link ByteArrayOutputStream#writeTo(java.io.OutputStream)}.
+     *
+     * @param serialObject
+     *            the object to serialize
+     * @return the buffer holding the JSON
+     * @throws SerializationException
+     *             if the object cannot be serialized
+     */
+    public <T> ByteArrayOutputStream encodeToBuffer(T serialObject) throws SerializationException {
+        log.info(String.format("Serializing object [%s]", serialObject));
+
+        EncodingBuffer buffer = buffers.get();
+        if (buffer == null || buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = new EncodingBuffer();
+            buffers.set(buffer);
+        }
+        buffer.reset();
+
+        try {
+            objectMapper.writeValue(buffer, serialObject);
+        } catch (Exception e) {
+            String error = "Unable to serialize object to bytes";
+            log.error(error, e);
+            throw new SerializationException(error, e);
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Returns the JSON of an object whose only non-null property is an enum, such as most Instant Access responses.
+     * There are few such payloads, so each one is serialized the first time it is seen and reused from then on.
+     *
+     * @param serialObject
+     *            the object to serialize
+     * @return the UTF-8 encoded JSON of the object, which must not be modified, or null if the object has other
+     *         non-null properties and must be serialized with {@link #encodeToBuffer(Object)}
+     * @throws SerializationException
+     *             if the object cannot be serialized
+     */
+    public byte[] encodeCached(Object serialObject) throws SerializationException {
+        if (serialObject == null) {
+            return null;
+        }
+
+        CachedClass cachedClass = getCachedClass(serialObject.getClass());
+        if (cachedClass == CachedClass.NOT_CACHEABLE) {
+            return null;
+        }
+
+        int enumProperty = -1;
+        Object enumValue = null;
+        for (int i = 0; i < cachedClass.accessors.length; ++i) {
+            Object value = cachedClass.accessors[i].getValue(serialObject);
+            if (value != null) {
+                if (enumValue != null || !(value instanceof Enum)) {
+                    return null;
+                }
+                enumProperty = i;
+                enumValue = value;
+            }
+        }
+        if (enumValue == null) {
+            return null;
+        }
+
+        ConcurrentHashMap<Object, byte[]> payloads = cachedClass.payloads[enumProperty];
+        byte[] payload = payloads.get(enumValue);
+        if (payload == null) {
+            try {
+                payload = objectMapper.writeValueAsBytes(serialObject);
+            } catch (Exception e) {
+                String error = "Unable to serialize object to bytes";
+                log.error(error, e);
+                throw new SerializationException(error, e);
+            }
+            payloads.putIfAbsent(enumValue, payload);
+        }
+        return payload;
+    }
+
+    public <T> T decode(byte[] json, Class<T> pojoClass) throws SerializationException {
+        try {
+            return objectMapper.readValue(json, pojoClass);
+        } catch (Exception e) {
+            String error = "Unable to deserialize bytes into object";
+            log.error(error, e);
+            throw new SerializationException(error, e);
+        }
+    }
+
     public <T> T decode(String jsonString, Class<T> pojoClass) throws SerializationException {
         try {
             return objectMapper.readValue(jsonString, pojoClass);
@@ -54,4 +170,119 @@ public class JacksonSerializer {
             throw new SerializationException(error, e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Decodes a JSON object into a class chosen from the value of one of its fields, in a single pass over the JSON.
+     * The fields before the type field are buffered as tokens, then replayed in front of the rest of the object, so
+     * the type field does not have to come first.
+     *
+     * @param json
+     *            the JSON object
+     * @param typeField
+     *            the name of the field the class depends on
+     * @param types
+     *            returns the class to decode for the value of the type field, null if the field is missing
+     * @return the decoded object
+     * @throws SerializationException
+     *             if the JSON cannot be decoded into the class of its type
+     */
+    public <T> T decode(byte[] json, String typeField, Function<String, Class<? extends T>> types)
+            throws SerializationException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                // Not an object, let the mapper report it
+                return objectMapper.readValue(json, types.apply(null));
+            }
+
+            TokenBuffer buffer = new TokenBuffer(parser);
+            buffer.writeStartObject();
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                buffer.writeFieldName(name);
+                JsonToken value = parser.nextToken();
+
+                if (typeField.equals(name) && value.isScalarValue()) {
+                    buffer.copyCurrentEvent(parser);
+                    Class<? extends T> type = types.apply(value == JsonToken.VALUE_NULL ? null : parser.getText());
+
+                    // Continue with the rest of the object right after the type field
+                    JsonParser sequence = JsonParserSequence.createFlattened(false, buffer.asParser(parser), parser);
+                    return objectMapper.readValue(sequence, type);
+                }
+                buffer.copyCurrentStructure(parser);
+            }
+
+            buffer.writeEndObject();
+            return objectMapper.readValue(buffer.asParser(parser), types.apply(null));
+        } catch (Exception e) {
+            String error = "Unable to deserialize bytes into object";
+            log.error(error, e);
+            throw new SerializationException(error, e);
+        }
+    }
+
+    private CachedClass getCachedClass(Class<?> type) {
+        CachedClass cachedClass = cachedClasses.get(type);
+        if (cachedClass == null) {
+            cachedClass = introspect(type);
+            cachedClasses.putIfAbsent(type, cachedClass);
+        }
+        return cachedClass;
+    }
+
+    /**
+     * Finds the properties of a plain bean, whose JSON only depends on the values of these properties.
+     */
+    private CachedClass introspect(Class<?> type) {
+        try {
+            SerializationConfig config = objectMapper.getSerializationConfig();
+            BeanDescription description = config.introspect(objectMapper.constructType(type));
+            if (description.findAnyGetter() != null || description.findJsonValueAccessor() != null
+                    || config.getAnnotationIntrospector().findSerializer(description.getClassInfo()) != null) {
+                return CachedClass.NOT_CACHEABLE;
+            }
+
+            List<BeanPropertyDefinition> properties = description.findProperties();
+            AnnotatedMember[] accessors = new AnnotatedMember[properties.size()];
+            for (int i = 0; i < accessors.length; ++i) {
+                accessors[i] = properties.get(i).getAccessor();
+                if (accessors[i] == null) {
+                    return CachedClass.NOT_CACHEABLE;
+                }
+                accessors[i].fixAccess(true);
+            }
+            return new CachedClass(accessors);
+        } catch (RuntimeException e) {
+            log.debug(String.format("Unable to cache the serialization of %s", type), e);
+            return CachedClass.NOT_CACHEABLE;
+        }
+    }
+
+    private static final class CachedClass {
+        private static final CachedClass NOT_CACHEABLE = new CachedClass(new AnnotatedMember[0]);
+
+        private final AnnotatedMember[] accessors;
+        /** The JSON of the object for every enum value of each property, when the other properties are null */
+        private final ConcurrentHashMap<Object, byte[]>[] payloads;
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private CachedClass(AnnotatedMember[] accessors) {
+            this.accessors = accessors;
+            this.payloads = new ConcurrentHashMap[accessors.length];
+            for (int i = 0; i < accessors.length; ++i) {
+                payloads[i] = new ConcurrentHashMap<Object, byte[]>();
+            }
+        }
+    }
+
+    private static final class EncodingBuffer extends ByteArrayOutputStream {
+        private EncodingBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+    }
+}
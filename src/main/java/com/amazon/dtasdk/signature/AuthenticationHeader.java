@@ -30,40 +30,119 @@ package com.amazon.dtasdk.signature;
  * DATE := The date the message was signed in YYMMDD format. This is used to generate the daily key.
  */
 public class AuthenticationHeader {
+    static final int ALGORITHM = 0;
+    static final int SIGNED_HEADERS = 2;
+    static final int CREDENTIAL = 4;
+    static final int SIGNATURE = 6;
+
     private String algorithm;
     private String credential;
     private String signedHeaders;
     private String signature;
 
+    /** The parsed header value and the start and end offsets of every component in it, if any */
+    private final String value;
+    private final int[] offsets;
+
+    public AuthenticationHeader() {
+        this(null, null);
+    }
+
+    /**
+     * Creates a header whose components are read from the offsets of a parsed value when first requested.
+     * 
+     * @param value
+     *            the header value
+     * @param offsets
+     *            the start and end offsets of the algorithm, signed headers, credential and signature in the value
+     */
+    AuthenticationHeader(String value, int[] offsets) {
+        this.value = value;
+        this.offsets = offsets;
+    }
+
     public void setAlgorithm(String algorithm) {
         this.algorithm = algorithm;
+        detach(ALGORITHM);
     }
 
     public void setCredential(String credential) {
         this.credential = credential;
+        detach(CREDENTIAL);
     }
 
     public void setSignedHeaders(String signedHeaders) {
         this.signedHeaders = signedHeaders;
+        detach(SIGNED_HEADERS);
     }
 
     public void setSignature(String signature) {
         this.signature = signature;
+        detach(SIGNATURE);
     }
 
     public String getAlgorithm() {
+        if (algorithm == null) {
+            algorithm = component(ALGORITHM);
+        }
         return algorithm;
     }
 
     public String getCredential() {
+        if (credential == null) {
+            credential = component(CREDENTIAL);
+        }
         return credential;
     }
 
     public String getSignedHeaders() {
+        if (signedHeaders == null) {
+            signedHeaders = component(SIGNED_HEADERS);
+        }
         return signedHeaders;
     }
 
     public String getSignature() {
+        if (signature == null) {
+            signature = component(SIGNATURE);
+        }
         return signature;
     }
+
+    /**
+     * @return the KEYID part of the credential, or null if the credential does not contain a '/'
+     */
+    public String getCredentialKeyId() {
+        String credential = getCredential();
+        int separator = credential == null ? -1 : credential.indexOf('/');
+        return separator < 0 ? null : credential.substring(0, separator);
+    }
+
+    /**
+     * @return the DATE part of the credential, up to the next '/' if any, or null if the credential does not contain
+     *         a '/'
+     */
+    public String getCredentialDate() {
+        String credential = getCredential();
+        int separator = credential == null ? -1 : credential.indexOf('/');
+        if (separator < 0) {
+            return null;
+        }
+
+        int end = credential.indexOf('/', separator + 1);
+        return credential.substring(separator + 1, end < 0 ? credential.length() : end);
+    }
+
+    private String component(int component) {
+        if (offsets == null || offsets[component] < 0) {
+            return null;
+        }
+        return value.substring(offsets[component], offsets[component + 1]);
+    }
+
+    private void detach(int component) {
+        if (offsets != null) {
+            offsets[component] = -1;
+        }
+    }
 }
@@ -14,33 +14,97 @@
  */
 package com.amazon.dtasdk.signature;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Parses an AuthenticationHeader from a header value string.
  * 
  * Pattern: ALGORITHM SignedHeaders=x;y;z, Credential=XXX, Signature=BIGSHA
  * Example: DTA1-HMAC-SHA256 SignedHeaders=aaa;content-type;x-amz-date;zzz, Credential=KEYID/20110909,
  * Signature=87729cb3475859a18b5d9cead0bba82f0f56a85c2a13bed3bc229c6c35e06628
+ * 
+ * The header is scanned once from left to right, with the same result as matching
+ * {@code (\S+) SignedHeaders=(\S+), Credential=(\S+), Signature=([\S&&[^,]]+)} from its first character: every
+ * component ends at the next whitespace, the signature also ends at the next comma, and anything after the signature
+ * is ignored. Only the offsets of the components are recorded, the strings are created when requested.
  */
 public class AuthenticationHeaderParser {
-    private static final Pattern pattern = Pattern
-            .compile("(\\S+) SignedHeaders=(\\S+), Credential=(\\S+), Signature=([\\S&&[^,]]+)");
+    /** Longer headers are rejected without being scanned */
+    static final int MAX_HEADER_LENGTH = 8192;
+
+    private static final String SIGNED_HEADERS = " SignedHeaders=";
+    private static final String CREDENTIAL = ", Credential=";
+    private static final String SIGNATURE = ", Signature=";
 
+    /**
+     * @param headerString
+     *            the value of the authorization header
+     * @return the parsed header, or null if the value does not follow the pattern or is longer than
+     *         {@link #MAX_HEADER_LENGTH}
+     */
     public AuthenticationHeader parse(String headerString) {
-        Matcher match = pattern.matcher(headerString);
-        AuthenticationHeader header = new AuthenticationHeader();
+        if (headerString == null || headerString.length() > MAX_HEADER_LENGTH) {
+            return null;
+        }
+
+        int algorithmEnd = skipToken(headerString, 0);
+        if (algorithmEnd == 0 || !headerString.startsWith(SIGNED_HEADERS, algorithmEnd)) {
+            return null;
+        }
+
+        int signedHeadersStart = algorithmEnd + SIGNED_HEADERS.length();
+        int signedHeadersEnd = skipTokenBefore(headerString, signedHeadersStart, CREDENTIAL);
+        if (signedHeadersEnd < 0) {
+            return null;
+        }
 
-        if (!match.find()) {
+        int credentialStart = signedHeadersEnd + CREDENTIAL.length();
+        int credentialEnd = skipTokenBefore(headerString, credentialStart, SIGNATURE);
+        if (credentialEnd < 0) {
             return null;
         }
 
-        header.setAlgorithm(match.group(1));
-        header.setSignedHeaders(match.group(2));
-        header.setCredential(match.group(3));
-        header.setSignature(match.group(4));
+        int signatureStart = credentialEnd + SIGNATURE.length();
+        int signatureEnd = signatureStart;
+        while (signatureEnd < headerString.length() && !isWhitespace(headerString.charAt(signatureEnd))
+                && headerString.charAt(signatureEnd) != ',') {
+            ++signatureEnd;
+        }
+        if (signatureEnd == signatureStart) {
+            return null;
+        }
+
+        return new AuthenticationHeader(headerString, new int[] { 0, algorithmEnd, signedHeadersStart,
+                signedHeadersEnd, credentialStart, credentialEnd, signatureStart, signatureEnd });
+    }
+
+    /**
+     * @return the offset of the first whitespace at or after start, or the length of the value
+     */
+    private static int skipToken(String value, int start) {
+        int end = start;
+        while (end < value.length() && !isWhitespace(value.charAt(end))) {
+            ++end;
+        }
+        return end;
+    }
+
+    /**
+     * Finds the end of a non empty token followed by a separator that starts with ", ". Since the token cannot
+     * contain whitespace, the only candidate is the comma right before the next whitespace.
+     * 
+     * @return the end of the token, or -1 if the token is empty or not followed by the separator
+     */
+    private static int skipTokenBefore(String value, int start, String separator) {
+        int end = skipToken(value, start) - 1;
+        if (end <= start || value.charAt(end) != ',' || !value.startsWith(separator, end)) {
+            return -1;
+        }
+        return end;
+    }
 
-        return header;
+    /**
+     * @return true for the characters matched by the \s regular expression class
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000b' || c == '\f' || c == '\r';
     }
 }
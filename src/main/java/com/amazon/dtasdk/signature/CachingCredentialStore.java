@@ -0,0 +1,281 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazon.dtasdk.utils.Clock;
+
+/**
+ * A {@link CredentialStore} that fetches the credentials it does not hold from a {@link CredentialProvider}, and caches
+ * them.
+ * 
+ * Credentials added to the store directly, or loaded from a file, take precedence over the provider. A cached
+ * credential is used for the TTL, and refreshed in the background once three quarters of the TTL have passed, so
+ * a credential in use is normally refreshed before it expires. Once expired, it is still used for the stale period
+ * while it is refreshed in the background, in case the provider is slow or failing. Only a credential that is missing
+ * or older than the TTL and the stale period together is fetched while the request waits.
+ * 
+ * There is at most one fetch in flight per public key, concurrent requests for the same public key wait for that fetch
+ * instead of starting their own. Public keys the provider does not know are remembered for the TTL, up to a bounded
+ * number of them with the oldest ones evicted first, so unknown keys do not reach the provider on every request. The
+ * fetches of public keys that are neither cached nor known to be unknown are also limited to
+ * {@link #MAX_MISS_FETCHES_PER_INTERVAL} per {@link #MISS_FETCH_INTERVAL_MILLIS}, so requests with random public keys
+ * cannot make every request wait for the provider. Over that rate such public keys are not found until the next
+ * interval.
+ */
+public class CachingCredentialStore extends CredentialStore {
+    private static final Log log = LogFactory.getLog(CachingCredentialStore.class);
+
+    public static final long DEFAULT_TTL_MILLIS = 15 * 60 * 1000;
+    public static final long DEFAULT_STALE_MILLIS = 60 * 60 * 1000;
+
+    static final int MAX_MISS_FETCHES_PER_INTERVAL = 16;
+    static final long MISS_FETCH_INTERVAL_MILLIS = 1000;
+
+    private static final ExecutorService defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CachingCredentialStore-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final CredentialProvider provider;
+    private final long ttlMillis;
+    private final long staleMillis;
+    private final Executor executor;
+    private final Clock clock;
+
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentHashMap<String, FutureTask<Credential>> fetches =
+            new ConcurrentHashMap<String, FutureTask<Credential>>();
+    private final NegativeCache unknownKeys;
+
+    /** The end of the current interval of fetches of public keys that are not cached, and their number in it */
+    private long missFetchIntervalEnd = Long.MIN_VALUE;
+    private int missFetches;
+
+    /**
+     * Creates a store with the default TTL and stale period, refreshing credentials on shared daemon threads.
+     * 
+     * @param provider
+     *            the provider of the credentials
+     */
+    public CachingCredentialStore(CredentialProvider provider) {
+        this(provider, DEFAULT_TTL_MILLIS, DEFAULT_STALE_MILLIS, defaultExecutor);
+    }
+
+    /**
+     * @param provider
+     *            the provider of the credentials
+     * @param ttlMillis
+     *            how long a fetched credential is used before it expires
+     * @param staleMillis
+     *            how long an expired credential is still used while it is refreshed
+     * @param executor
+     *            runs the background refreshes
+     */
+    public CachingCredentialStore(CredentialProvider provider, long ttlMillis, long staleMillis, Executor executor) {
+        this(provider, ttlMillis, staleMillis, executor, new Clock());
+    }
+
+    CachingCredentialStore(CredentialProvider provider, long ttlMillis, long staleMillis, Executor executor,
+            Clock clock) {
+        this.provider = provider;
+        this.ttlMillis = ttlMillis;
+        this.staleMillis = staleMillis;
+        this.executor = executor;
+        this.clock = clock;
+        this.unknownKeys = new NegativeCache(NegativeCache.DEFAULT_MAX_ENTRIES, ttlMillis, true);
+    }
+
+    @Override
+    public Credential get(String publicKey) throws CredentialNotFoundException {
+        Credential credential = find(publicKey);
+        if (credential == null) {
+            throw new CredentialNotFoundException("Credential not found for public key: " + publicKey);
+        }
+        return credential;
+    }
+
+    @Override
+    public Credential find(String publicKey) {
+        Credential credential = findLocal(publicKey);
+        if (credential == null) {
+            credential = findCached(publicKey);
+        }
+        if (credential == null) {
+            recordMiss(publicKey);
+        }
+        return credential;
+    }
+
+    /**
+     * @return the credentials added to the store and the credentials cached from the provider
+     */
+    @Override
+    public Collection<Credential> getAll() {
+        List<Credential> credentials = new ArrayList<Credential>(super.getAll());
+        for (Entry entry : cache.values()) {
+            credentials.add(entry.credential);
+        }
+        return Collections.unmodifiableList(credentials);
+    }
+
+    private Credential findCached(String publicKey) {
+        long now = clock.currentTimeMillis();
+        Entry entry = cache.get(publicKey);
+
+        if (entry == null) {
+            if (unknownKeys.contains(publicKey, now)) {
+                return null;
+            }
+            // Joining a fetch in flight costs nothing, only new fetches count against the rate
+            if (!fetches.containsKey(publicKey) && !acquireMissFetch(now)) {
+                return null;
+            }
+            return fetch(publicKey, null);
+        }
+
+        long age = now - entry.fetchedAt;
+        if (age >= ttlMillis + staleMillis) {
+            return fetch(publicKey, entry.credential);
+        }
+
+        if (age >= ttlMillis - ttlMillis / 4 && now >= entry.nextRefreshAt) {
+            // Avoid starting a refresh on every request while one is failing
+            entry.nextRefreshAt = now + ttlMillis / 4;
+            refresh(publicKey);
+        }
+        return entry.credential;
+    }
+
+    /**
+     * @return true if a public key that is not cached can be fetched from the provider within the rate
+     */
+    private synchronized boolean acquireMissFetch(long now) {
+        if (now >= missFetchIntervalEnd) {
+            missFetchIntervalEnd = now + MISS_FETCH_INTERVAL_MILLIS;
+            missFetches = 0;
+        }
+        if (missFetches >= MAX_MISS_FETCHES_PER_INTERVAL) {
+            return false;
+        }
+        ++missFetches;
+        return true;
+    }
+
+    /**
+     * Fetches a credential while the caller waits, joining the fetch in flight for the public key if there is one.
+     * 
+     * @return the fetched credential, or the stale one if the fetch failed
+     */
+    private Credential fetch(String publicKey, Credential stale) {
+        FutureTask<Credential> task = newFetch(publicKey);
+        FutureTask<Credential> inFlight = fetches.putIfAbsent(publicKey, task);
+        if (inFlight == null) {
+            inFlight = task;
+            run(publicKey, task);
+        }
+
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn(String.format("Unable to fetch the credential of public key [%s]", publicKey), e.getCause());
+        }
+        return stale;
+    }
+
+    private void refresh(final String publicKey) {
+        final FutureTask<Credential> task = newFetch(publicKey);
+        if (fetches.putIfAbsent(publicKey, task) != null) {
+            return;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    CachingCredentialStore.this.run(publicKey, task);
+                    try {
+                        task.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        log.warn(String.format("Unable to refresh the credential of public key [%s]", publicKey),
+                                e.getCause());
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            fetches.remove(publicKey, task);
+            log.warn(String.format("Unable to schedule the refresh of public key [%s]", publicKey), e);
+        }
+    }
+
+    private void run(String publicKey, FutureTask<Credential> task) {
+        try {
+            task.run();
+        } finally {
+            fetches.remove(publicKey, task);
+        }
+    }
+
+    private FutureTask<Credential> newFetch(final String publicKey) {
+        return new FutureTask<Credential>(new Callable<Credential>() {
+            @Override
+            public Credential call() throws Exception {
+                Credential credential = provider.getCredential(publicKey);
+                long now = clock.currentTimeMillis();
+                if (credential == null) {
+                    cache.remove(publicKey);
+                    unknownKeys.recordMiss(publicKey, now);
+                } else {
+                    cache.put(publicKey, new Entry(credential, now));
+                }
+                return credential;
+            }
+        });
+    }
+
+    private static final class Entry {
+        private final Credential credential;
+        private final long fetchedAt;
+        private volatile long nextRefreshAt;
+
+        private Entry(Credential credential, long fetchedAt) {
+            this.credential = credential;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
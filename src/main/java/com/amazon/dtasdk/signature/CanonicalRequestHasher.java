@@ -0,0 +1,349 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+import javax.crypto.Mac;
+
+import com.amazon.dtasdk.utils.BinaryUtils;
+
+/**
+ * Computes the hashes that go into a request signature without building the canonical request or the string to sign.
+ *
+ * Every piece of the canonical request is encoded as UTF-8 straight into a reusable buffer that is flushed into the
+ * SHA-256 digest, so the result is byte for byte the hash of {@link Signer#getCanonicalRequest(Request)}. Instances
+ * are not thread safe, use {@link #get()} to obtain the one of the current thread.
+ */
+final class CanonicalRequestHasher {
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 1024;
+
+    private static final ThreadLocal<CanonicalRequestHasher> hashers = new ThreadLocal<CanonicalRequestHasher>() {
+        @Override
+        protected CanonicalRequestHasher initialValue() {
+            try {
+                return new CanonicalRequestHasher(MessageDigest.getInstance(DIGEST_ALGORITHM));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final MessageDigest digest;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+    private byte[] decoded;
+    private char[] hexDigits;
+
+    /** When set, the buffer is flushed into this Mac instead of the digest */
+    private Mac mac;
+
+    private CanonicalRequestHasher(MessageDigest digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * @return the hasher of the current thread
+     */
+    static CanonicalRequestHasher get() {
+        return hashers.get();
+    }
+
+    /**
+     * Returns the SHA-256 digest of this hasher, for hashing content that is not part of a canonical request yet. The
+     * digest must be completed before the hasher is used again.
+     *
+     * @return a reset SHA-256 digest
+     */
+    MessageDigest getDigest() {
+        reset();
+        return digest;
+    }
+
+    /**
+     * Hashes the canonical request of a request. See {@link Signer#getCanonicalRequest(Request)} for its format.
+     *
+     * The headers are read in the order of {@link Request#getHeaderNames()}, which is already sorted ignoring case.
+     *
+     * @param request
+     *            the request to hash
+     * @param resourcePath
+     *            the canonicalized resource path of the request
+     * @param signedHeaders
+     *            receives the signed headers string of the request
+     * @return the SHA-256 hash of the canonical request
+     */
+    byte[] hashCanonicalRequest(Request request, String resourcePath, StringBuilder signedHeaders) {
+        return hashCanonicalRequest(request, request.getHeaderNames(), resourcePath, signedHeaders);
+    }
+
+    /**
+     * Hashes the canonical request of a request as if it only had some of its headers.
+     *
+     * @param request
+     *            the request to hash
+     * @param headerNames
+     *            the names of the headers to include, sorted ignoring case
+     * @param resourcePath
+     *            the canonicalized resource path of the request
+     * @param signedHeaders
+     *            receives the signed headers string of the request
+     * @return the SHA-256 hash of the canonical request
+     */
+    byte[] hashCanonicalRequest(Request request, Iterable<String> headerNames, String resourcePath,
+            StringBuilder signedHeaders) {
+        reset();
+
+        // The body is hashed first, so the same digest can be used for the canonical request
+        byte[] contentHash = request.getBodyHash();
+        if (contentHash == null) {
+            String body = request.getBody();
+            if (body != null) {
+                append(body);
+            }
+            flush();
+            contentHash = digest.digest();
+        }
+
+        append(request.getMethod().toString()).append('\n');
+        append(resourcePath).append('\n');
+        // Query String would go here
+        append('\n');
+
+        for (String header : headerNames) {
+            appendHeaderName(header);
+            append(':');
+            appendCollapsingWhitespace(request.getHeader(header));
+            append('\n');
+
+            if (signedHeaders.length() > 0) {
+                signedHeaders.append(';');
+            }
+            appendLowerCase(signedHeaders, header);
+        }
+
+        append('\n').append(signedHeaders).append('\n');
+        appendHex(contentHash);
+
+        flush();
+        return digest.digest();
+    }
+
+    /**
+     * Computes the signature of a request from the hash of its canonical request. See
+     * {@link Signer#getStringToSign(String, String, String, String)} for the format of the signed string.
+     *
+     * @param signingMac
+     *            a Mac initialized with the signing key
+     * @param algorithm
+     *            the algorithm of the signature
+     * @param dateTime
+     *            the date of the request
+     * @param scope
+     *            the scope of the signature
+     * @param canonicalRequestHash
+     *            the hash of the canonical request
+     * @return the signature
+     */
+    byte[] sign(Mac signingMac, String algorithm, String dateTime, String scope, byte[] canonicalRequestHash) {
+        reset();
+        mac = signingMac;
+        try {
+            append(algorithm).append('\n');
+            append(dateTime).append('\n');
+            append(scope).append('\n');
+            appendHex(canonicalRequestHash);
+
+            flush();
+            return signingMac.doFinal();
+        } finally {
+            mac = null;
+        }
+    }
+
+    /**
+     * Compares a hex encoded value with raw bytes in constant time. The hex value is decoded into a buffer of this
+     * hasher, so no array is allocated once the buffer exists.
+     *
+     * @param hex
+     *            the hex encoded value, in lower or upper case
+     * @param expected
+     *            the raw bytes
+     * @return true if the hex value encodes the expected bytes
+     */
+    boolean matchesHex(String hex, byte[] expected) {
+        if (hex.length() != expected.length * 2) {
+            return false;
+        }
+
+        if (decoded == null || decoded.length != expected.length) {
+            decoded = new byte[expected.length];
+        }
+
+        for (int i = 0; i < expected.length; ++i) {
+            int high = BinaryUtils.hexValue(hex.charAt(2 * i));
+            int low = BinaryUtils.hexValue(hex.charAt(2 * i + 1));
+            if (high < 0 || low < 0) {
+                return false;
+            }
+            decoded[i] = (byte) ((high << 4) | low);
+        }
+
+        return MessageDigest.isEqual(decoded, expected);
+    }
+
+    private void reset() {
+        count = 0;
+        mac = null;
+        digest.reset();
+    }
+
+    private void appendHeaderName(String name) {
+        if (isAscii(name)) {
+            appendCollapsingWhitespace(name, true);
+        } else {
+            appendCollapsingWhitespace(name.toLowerCase(Locale.ROOT), false);
+        }
+    }
+
+    private void appendCollapsingWhitespace(String value) {
+        if (value != null) {
+            appendCollapsingWhitespace(value, false);
+        }
+    }
+
+    /**
+     * Appends a string replacing every run of whitespace characters with a single space, the same way
+     * value.replaceAll("\\s+", " ") does. ASCII letters are lower cased on the way if requested.
+     */
+    private void appendCollapsingWhitespace(String value, boolean lowerCaseAscii) {
+        int length = value.length();
+        boolean inWhitespace = false;
+        int start = 0;
+
+        for (int i = 0; i < length; ++i) {
+            char c = value.charAt(i);
+            if (isWhitespace(c)) {
+                if (!inWhitespace) {
+                    append(value, start, i, lowerCaseAscii);
+                    append(' ');
+                    inWhitespace = true;
+                }
+            } else if (inWhitespace) {
+                start = i;
+                inWhitespace = false;
+            }
+        }
+
+        if (!inWhitespace) {
+            append(value, start, length, lowerCaseAscii);
+        }
+    }
+
+    private CanonicalRequestHasher append(CharSequence value) {
+        append(value, 0, value.length(), false);
+        return this;
+    }
+
+    private void append(CharSequence value, int start, int end, boolean lowerCaseAscii) {
+        for (int i = start; i < end; ++i) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (lowerCaseAscii && c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                append(c);
+            } else if (c < 0x800) {
+                appendByte(0xc0 | (c >> 6));
+                appendByte(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendByte(0xf0 | (codePoint >> 18));
+                appendByte(0x80 | ((codePoint >> 12) & 0x3f));
+                appendByte(0x80 | ((codePoint >> 6) & 0x3f));
+                appendByte(0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Same replacement String.getBytes uses for malformed input
+                append('?');
+            } else {
+                appendByte(0xe0 | (c >> 12));
+                appendByte(0x80 | ((c >> 6) & 0x3f));
+                appendByte(0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private CanonicalRequestHasher append(char c) {
+        appendByte(c);
+        return this;
+    }
+
+    private void appendHex(byte[] data) {
+        if (hexDigits == null || hexDigits.length != data.length * 2) {
+            hexDigits = new char[data.length * 2];
+        }
+        BinaryUtils.toHex(data, hexDigits, 0);
+        for (char c : hexDigits) {
+            appendByte(c);
+        }
+    }
+
+    private void appendByte(int b) {
+        if (count == buffer.length) {
+            flush();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    private void flush() {
+        if (mac != null) {
+            mac.update(buffer, 0, count);
+        } else {
+            digest.update(buffer, 0, count);
+        }
+        count = 0;
+    }
+
+    private static void appendLowerCase(StringBuilder builder, String name) {
+        if (!isAscii(name)) {
+            builder.append(name.toLowerCase(Locale.ROOT));
+            return;
+        }
+
+        for (int i = 0; i < name.length(); ++i) {
+            char c = name.charAt(i);
+            builder.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        }
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true for the characters matched by the \s regular expression class
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000b' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps a {@link CredentialStore} in sync with a keys file, so keys can be rotated without a restart.
+ * 
+ * The file is watched from a daemon thread with a {@link WatchService}, or polled when the file system does not
+ * support watching it. The file is also polled while watching it, in case an event is missed. Once the file changes,
+ * the watcher waits for it to stay unchanged for the debounce delay, so the several writes of an editor result in a
+ * single reload, then replaces all the credentials of the store with {@link CredentialStore#reload(File)}. A file that
+ * does not parse is logged and ignored, the store keeps its credentials until the file is fixed.
+ * 
+ * Requests keep being verified against the current credentials during a reload. The signing keys derived from a
+ * secret key are cached by secret, so a rotated secret key is used as soon as it is in the store.
+ * 
+ * <pre>
+ * CredentialStore store = new CredentialStore();
+ * CredentialFileWatcher watcher = new CredentialFileWatcher(store, new File("keys.csv"));
+ * watcher.start();
+ * ...
+ * watcher.close();
+ * </pre>
+ */
+public class CredentialFileWatcher implements Closeable {
+    private static final Log log = LogFactory.getLog(CredentialFileWatcher.class);
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 500;
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 5000;
+
+    private final CredentialStore store;
+    private final Path file;
+    private final long debounceMillis;
+    private final long pollIntervalMillis;
+    private final boolean useWatchService;
+    private final Thread thread;
+
+    private volatile boolean closed;
+
+    /** The modification time and size of the file when it was last read, only used by the watcher thread */
+    private long lastModified;
+    private long lastSize;
+
+    /**
+     * Creates a watcher with the default debounce delay and poll interval.
+     * 
+     * @param store
+     *            the store to keep in sync
+     * @param file
+     *            the keys file
+     */
+    public CredentialFileWatcher(CredentialStore store, File file) {
+        this(store, file, DEFAULT_DEBOUNCE_MILLIS, DEFAULT_POLL_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param store
+     *            the store to keep in sync
+     * @param file
+     *            the keys file
+     * @param debounceMillis
+     *            how long the file must stay unchanged before it is reloaded
+     * @param pollIntervalMillis
+     *            how often the file is checked for changes, without a WatchService or in case it misses an event
+     */
+    public CredentialFileWatcher(CredentialStore store, File file, long debounceMillis, long pollIntervalMillis) {
+        this(store, file, debounceMillis, pollIntervalMillis, true);
+    }
+
+    CredentialFileWatcher(CredentialStore store, File file, long debounceMillis, long pollIntervalMillis,
+            boolean useWatchService) {
+        this.store = store;
+        this.file = file.getAbsoluteFile().toPath();
+        this.debounceMillis = debounceMillis;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.useWatchService = useWatchService;
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "CredentialFileWatcher-" + this.file.getFileName());
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Loads the file into the store, then starts watching it.
+     * 
+     * @throws IOException
+     *             if the file cannot be read
+     * @throws IllegalArgumentException
+     *             if the file does not exist or is invalid
+     */
+    public void start() throws IOException {
+        reload();
+        thread.start();
+    }
+
+    /**
+     * Stops watching the file. The store keeps the last credentials loaded.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+    }
+
+    private void watch() {
+        WatchService watchService = useWatchService ? newWatchService() : null;
+        try {
+            while (!closed) {
+                if (awaitChange(watchService, pollIntervalMillis)) {
+                    // Wait for the writes to settle before reading the file
+                    while (awaitChange(watchService, debounceMillis)) {
+                        continue;
+                    }
+                    reloadQuietly();
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } finally {
+            closeQuietly(watchService);
+        }
+    }
+
+    private WatchService newWatchService() {
+        WatchService watchService = null;
+        try {
+            watchService = file.getFileSystem().newWatchService();
+            file.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+            return watchService;
+        } catch (IOException e) {
+            log.warn(String.format("Cannot watch [%s], polling it instead", file), e);
+        } catch (UnsupportedOperationException e) {
+            log.warn(String.format("Cannot watch [%s], polling it instead", file), e);
+        }
+        closeQuietly(watchService);
+        return null;
+    }
+
+    /**
+     * Waits for an event on the file, or sleeps without a watch service.
+     * 
+     * @return true if the file changed since it was last read or the last call
+     */
+    private boolean awaitChange(WatchService watchService, long timeoutMillis) throws InterruptedException {
+        boolean changed = false;
+        if (watchService == null) {
+            Thread.sleep(timeoutMillis);
+        } else {
+            WatchKey key = watchService.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+            if (key != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= event.kind() == OVERFLOW || file.getFileName().equals(event.context());
+                }
+                key.reset();
+            }
+        }
+
+        // The modification time may not change between quick writes, so both sides are recorded again
+        long modified = lastModified;
+        long size = lastSize;
+        recordState();
+        return changed || modified != lastModified || size != lastSize;
+    }
+
+    private void reloadQuietly() {
+        try {
+            reload();
+        } catch (IOException e) {
+            log.error(String.format("Unable to reload the credentials from [%s], keeping the current ones", file), e);
+        } catch (IllegalArgumentException e) {
+            log.error(String.format("Invalid credentials in [%s], keeping the current ones", file), e);
+        }
+    }
+
+    private void reload() throws IOException {
+        recordState();
+        store.reload(file.toFile());
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Reloaded the credentials from [%s]", file));
+        }
+    }
+
+    private void recordState() {
+        try {
+            lastModified = Files.getLastModifiedTime(file).toMillis();
+            lastSize = Files.size(file);
+        } catch (IOException e) {
+            // The file is being replaced or was deleted, keep waiting for it
+            lastModified = -1;
+            lastSize = -1;
+        }
+    }
+
+    private static void closeQuietly(WatchService watchService) {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("Unable to close the watch service", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses keys files, see {@link CredentialStore}, as UTF-8 bytes.
+ * 
+ * The content is read in chunks and split into lines and keys on the fly, so the only strings created are the keys
+ * themselves. Keys are separated by whitespace, anything after the public key of a line is ignored, and blank lines
+ * are skipped.
+ */
+final class CredentialParser {
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /** Files at least this large are memory mapped instead of read into a buffer */
+    private static final long MAPPED_FILE_SIZE = 1024 * 1024;
+
+    private final Map<String, Credential> credentials = new HashMap<String, Credential>();
+
+    private byte[] token = new byte[64];
+    private int tokenLength;
+    private int tokensOnLine;
+    private String secretKey;
+    private String publicKey;
+    private int lineNumber = 1;
+    private boolean empty = true;
+
+    /**
+     * @return the credentials of the file, by public key
+     * @throws IllegalArgumentException
+     *             if the file is empty or a line does not contain both keys
+     */
+    static Map<String, Credential> parse(File file) throws IOException {
+        CredentialParser parser = new CredentialParser();
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+            long size = channel.size();
+            if (size >= MAPPED_FILE_SIZE) {
+                for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+                    parser.parse(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(Integer.MAX_VALUE, size - position)));
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    parser.parse(buffer);
+                    buffer.clear();
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        return parser.finish();
+    }
+
+    /**
+     * @return the credentials of the stream, by public key
+     * @throws IllegalArgumentException
+     *             if the stream is empty or a line does not contain both keys
+     */
+    static Map<String, Credential> parse(InputStream stream) throws IOException {
+        CredentialParser parser = new CredentialParser();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int read;
+        while ((read = stream.read(buffer)) >= 0) {
+            parser.parse(ByteBuffer.wrap(buffer, 0, read));
+        }
+        return parser.finish();
+    }
+
+    /**
+     * @return the credentials of the string, by public key
+     * @throws IllegalArgumentException
+     *             if the string is empty or a line does not contain both keys
+     */
+    static Map<String, Credential> parse(String contents) {
+        CredentialParser parser = new CredentialParser();
+        if (contents != null) {
+            parser.parse(ByteBuffer.wrap(contents.getBytes(CHARSET)));
+        }
+        return parser.finish();
+    }
+
+    private void parse(ByteBuffer buffer) {
+        if (buffer.hasRemaining()) {
+            empty = false;
+        }
+
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                endToken();
+                endLine();
+            } else if (isWhitespace(b)) {
+                endToken();
+            } else {
+                if (tokenLength == token.length) {
+                    token = Arrays.copyOf(token, token.length * 2);
+                }
+                token[tokenLength++] = b;
+            }
+        }
+    }
+
+    private Map<String, Credential> finish() {
+        if (empty) {
+            throw new IllegalArgumentException("Invalid keys");
+        }
+
+        endToken();
+        endLine();
+        return credentials;
+    }
+
+    private void endToken() {
+        if (tokenLength == 0) {
+            return;
+        }
+
+        ++tokensOnLine;
+        if (tokensOnLine == 1) {
+            secretKey = new String(token, 0, tokenLength, CHARSET);
+        } else if (tokensOnLine == 2) {
+            publicKey = new String(token, 0, tokenLength, CHARSET);
+        }
+        tokenLength = 0;
+    }
+
+    private void endLine() {
+        if (tokensOnLine == 1) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid credentials format found on line %d", lineNumber));
+        }
+
+        // Blank lines in between credentials are ignored
+        if (tokensOnLine >= 2) {
+            credentials.put(publicKey, new Credential(secretKey, publicKey));
+        }
+
+        tokensOnLine = 0;
+        secretKey = null;
+        publicKey = null;
+        ++lineNumber;
+    }
+
+    /**
+     * @return true for the characters matched by the \s regular expression class
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0b || b == '\f' || b == '\r';
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import java.io.IOException;
+
+/**
+ * A source of credentials, such as a secret manager service, queried by public key.
+ * 
+ * Providers are typically slow or remote, use them through a {@link CachingCredentialStore} so requests are not
+ * verified against the provider directly. Implementations must be thread safe.
+ */
+public interface CredentialProvider {
+    /**
+     * Fetches the credential of a public key.
+     * 
+     * @param publicKey
+     *            the public key
+     * @return the credential, or null if the provider has no credential for the public key
+     * @throws IOException
+     *             if the provider cannot be reached
+     */
+    Credential getCredential(String publicKey) throws IOException;
+}
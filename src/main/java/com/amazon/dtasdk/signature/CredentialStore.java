@@ -15,16 +15,15 @@
 package com.amazon.dtasdk.signature;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
-import java.nio.charset.Charset;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -41,14 +40,21 @@ import org.apache.commons.logging.LogFactory;
  * 
  * Credentials, then, can be accessed by the public key using {@link CredentialStore#get(String)}
  * 
+ * The store is safe to use from several threads. Reads go to an immutable snapshot of the credentials, and every
+ * change publishes a new snapshot atomically, so a store can be modified or reloaded while requests are verified
+ * against it without blocking them or exposing a partially loaded state.
  */
 public class CredentialStore {
     private static final Log log = LogFactory.getLog(CredentialStore.class);
 
-    private HashMap<String, Credential> store;
+    private final AtomicReference<Map<String, Credential>> store;
+
+    /** The public keys missed recently, so each of them is only logged once in a while */
+    private final NegativeCache missedKeys = new NegativeCache();
+    private final LongAdder missCount = new LongAdder();
 
     public CredentialStore() {
-        store = new HashMap<String, Credential>();
+        store = new AtomicReference<Map<String, Credential>>(Collections.<String, Credential> emptyMap());
     }
 
     /**
@@ -61,22 +67,63 @@ public class CredentialStore {
      * @throws CredentialNotFoundException
      */
     public Credential get(String publicKey) throws CredentialNotFoundException {
-        if (!store.containsKey(publicKey)) {
+        Credential credential = store.get().get(publicKey);
+        if (credential == null) {
             String message = "Credential not found for public key: " + publicKey;
             log.error(message);
             throw new CredentialNotFoundException(message);
         }
 
-        return store.get(publicKey);
+        return credential;
+    }
+
+    /**
+     * Finds the credential for a given public key, without throwing when there is none. This is the lookup used to
+     * verify requests: a public key that is not found is logged once in a while only, however often it is requested.
+     * 
+     * @param publicKey
+     *            the public key
+     * @return the credential, or null if the store has no credential for the public key
+     */
+    public Credential find(String publicKey) {
+        Credential credential = findLocal(publicKey);
+        if (credential == null) {
+            recordMiss(publicKey);
+        }
+        return credential;
+    }
+
+    /**
+     * @return the credential added to this store for the public key, or null if there is none
+     */
+    Credential findLocal(String publicKey) {
+        return store.get().get(publicKey);
+    }
+
+    /**
+     * Counts a public key that was not found, and logs it unless it was missed recently.
+     */
+    void recordMiss(String publicKey) {
+        missCount.increment();
+        if (missedKeys.recordMiss(publicKey, System.currentTimeMillis())) {
+            log.warn("Credential not found for public key: " + publicKey);
+        }
+    }
+
+    /**
+     * @return the number of public keys that were not found by {@link #find(String)}
+     */
+    public long getMissCount() {
+        return missCount.sum();
     }
 
     /**
      * Gets the credentials stored in this store.
      * 
-     * @return a {@link Collection<Credential>} with all the credentials
+     * @return an unmodifiable {@link Collection<Credential>} with all the credentials at the time of the call
      */
     public Collection<Credential> getAll() {
-        return store.values();
+        return store.get().values();
     }
 
     /**
@@ -86,7 +133,7 @@ public class CredentialStore {
      *            the credential object to be added
      */
     public void add(Credential credential) {
-        store.put(credential.getPublicKey(), credential);
+        update(Collections.singletonMap(credential.getPublicKey(), credential), null);
     }
 
     /**
@@ -96,32 +143,48 @@ public class CredentialStore {
      *            the public key of the credential to be removed
      */
     public void remove(String publicKey) {
-        store.remove(publicKey);
+        update(Collections.<String, Credential> emptyMap(), publicKey);
+    }
+
+    /**
+     * Publishes a new snapshot with the credentials added and the public key removed. The snapshot is built from the
+     * current one again if another thread changed the store in the meantime.
+     */
+    private void update(Map<String, Credential> added, String removedPublicKey) {
+        while (true) {
+            Map<String, Credential> current = store.get();
+            Map<String, Credential> next = new HashMap<String, Credential>(current);
+            next.putAll(added);
+            if (removedPublicKey != null) {
+                next.remove(removedPublicKey);
+            }
+
+            if (store.compareAndSet(current, Collections.unmodifiableMap(next))) {
+                return;
+            }
+        }
     }
 
     /**
      * Loads keys from a file and populates the store.
      * 
-     * Each line of the file must contain a secret key and a public key separated by an empty space.
+     * Each line of the file must contain a secret key and a public key separated by an empty space. The file is read
+     * as UTF-8, and large files are memory mapped. The keys are added all at once, and none of them is added if a line
+     * is invalid.
      * 
      * @param file
      *            the file object that contains the keys
      * @throws IOException
      */
     public void load(File file) throws IOException {
-        if (file == null || !file.exists()) {
-            String message = "Invalid keys file object";
-            log.error(message);
-            throw new IllegalArgumentException(message);
-        }
-
-        load(new FileInputStream(file));
+        update(parse(file), null);
     }
 
     /**
      * Loads keys from a input stream and populates the store.
      * 
-     * Each line of the file must contain a secret key and a public key separated by an empty space.
+     * Each line of the stream must contain a secret key and a public key separated by an empty space. The stream is
+     * read as UTF-8. The keys are added all at once, and none of them is added if a line is invalid.
      * 
      * @param stream
      *            the stream object that contains the keys
@@ -134,53 +197,60 @@ public class CredentialStore {
             throw new IllegalArgumentException(message);
         }
 
-        StringWriter writer = new StringWriter();
-        IOUtils.copy(stream, writer, Charset.defaultCharset());
-        String contents = writer.toString();
-
-        load(contents);
+        try {
+            update(CredentialParser.parse(stream), null);
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            throw e;
+        }
     }
 
     /**
      * Loads keys from a string and populates the store.
      * 
-     * Each line of the file must contain a secret key and a public key separated by an empty space.
+     * Each line of the string must contain a secret key and a public key separated by an empty space. The keys are
+     * added all at once, and none of them is added if a line is invalid.
      * 
      * @param contents
      *            the string object that contains the keys
      * @throws IOException
      */
     public void load(String contents) {
-        if (StringUtils.isEmpty(contents)) {
-            String message = "Invalid keys";
-            log.error(message);
-            throw new IllegalArgumentException(message);
+        try {
+            update(CredentialParser.parse(contents), null);
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            throw e;
         }
+    }
 
-        String[] lines = contents.split("\\n");
-
-        for (int i = 0; i < lines.length; ++i) {
-            String line = lines[i];
-
-            // Ignore blank lines in between credentials
-            if (StringUtils.isEmpty(line)) {
-                continue;
-            }
-
-            // credentials should be separate by an empty space
-            String[] keys = line.split("\\s+");
-
-            // Invalid format
-            if (keys.length < 2) {
-                String message = String.format("Invalid credentials format found on line %d", i);
-                log.error(message);
-                throw new IllegalArgumentException(message);
-            }
+    /**
+     * Replaces all the credentials of the store with the keys of a file, at once. The store is left unchanged if the
+     * file is invalid.
+     * 
+     * Each line of the file must contain a secret key and a public key separated by an empty space.
+     * 
+     * @param file
+     *            the file object that contains the keys
+     * @throws IOException
+     * @see CredentialFileWatcher
+     */
+    public void reload(File file) throws IOException {
+        store.set(Collections.unmodifiableMap(parse(file)));
+    }
 
-            String secretKey = keys[0];
-            String publicKey = keys[1];
+    private static Map<String, Credential> parse(File file) throws IOException {
+        if (file == null || !file.exists()) {
+            String message = "Invalid keys file object";
+            log.error(message);
+            throw new IllegalArgumentException(message);
+        }
 
-            store.put(publicKey, new Credential(secretKey, publicKey));
+        try {
+            return CredentialParser.parse(file);
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            throw e;
         }
     }
 }
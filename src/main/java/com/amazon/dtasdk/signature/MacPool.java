@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+
+/**
+ * Keeps one {@link Mac} per thread so the provider lookup only happens once per thread.
+ *
+ * The Mac remembers the last key it was initialized with, so acquiring it again with the same key object skips the key
+ * setup entirely.
+ */
+final class MacPool {
+    private final String algorithm;
+
+    private final ThreadLocal<PooledMac> macs = new ThreadLocal<PooledMac>();
+
+    MacPool(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Returns the Mac of the current thread initialized with the given key. The Mac must be used with doFinal before
+     * acquiring it again.
+     *
+     * @param key
+     *            the key to initialize the Mac with
+     * @return a Mac ready to be updated
+     * @throws NoSuchAlgorithmException
+     *             if the algorithm is not available
+     * @throws InvalidKeyException
+     *             if the key cannot be used with the algorithm
+     */
+    Mac acquire(Key key) throws NoSuchAlgorithmException, InvalidKeyException {
+        PooledMac pooled = macs.get();
+        if (pooled == null) {
+            pooled = new PooledMac(Mac.getInstance(algorithm));
+            macs.set(pooled);
+        }
+
+        if (pooled.key == key) {
+            // Drops any data left over by a previous caller that failed before calling doFinal
+            pooled.mac.reset();
+        } else {
+            // Forget the key first, a failed init leaves the Mac uninitialized
+            pooled.key = null;
+            pooled.mac.init(key);
+            pooled.key = key;
+        }
+
+        return pooled.mac;
+    }
+
+    private static final class PooledMac {
+        private final Mac mac;
+        private Key key;
+
+        private PooledMac(Mac mac) {
+            this.mac = mac;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers recently missed keys for a while, so repeated misses of the same key can be handled once per period
+ * instead of once per request.
+ * 
+ * The number of keys remembered is bounded. Once it is full and none of the keys has expired, new keys are reported as
+ * already seen until some expire, so a flood of distinct keys cannot grow the cache or be handled more than
+ * maxEntries times per period. A cache created to evict the oldest keys instead always remembers the new keys, at the
+ * expense of the keys closest to expiring.
+ */
+final class NegativeCache {
+    static final int DEFAULT_MAX_ENTRIES = 1024;
+    static final long DEFAULT_TTL_MILLIS = 60 * 1000;
+
+    private final ConcurrentHashMap<String, Long> expirations = new ConcurrentHashMap<String, Long>();
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final boolean evictOldest;
+
+    NegativeCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+    }
+
+    NegativeCache(int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, false);
+    }
+
+    NegativeCache(int maxEntries, long ttlMillis, boolean evictOldest) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.evictOldest = evictOldest;
+    }
+
+    /**
+     * Records a miss of a key.
+     * 
+     * @param key
+     *            the missed key
+     * @param now
+     *            the current time in milliseconds
+     * @return true if the miss is the first one of the key in its period, false if the key was missed recently
+     */
+    boolean recordMiss(String key, long now) {
+        Long expiration = expirations.get(key);
+        if (expiration != null && expiration > now) {
+            return false;
+        }
+
+        if (expiration == null && expirations.size() >= maxEntries) {
+            removeExpired(now);
+            if (expirations.size() >= maxEntries) {
+                if (!evictOldest) {
+                    return false;
+                }
+                removeOldest();
+            }
+        }
+
+        // Only one of the threads missing the key at the same time reports it
+        if (expiration == null) {
+            return expirations.putIfAbsent(key, now + ttlMillis) == null;
+        }
+        return expirations.replace(key, expiration, now + ttlMillis);
+    }
+
+    /**
+     * @return true if the key was missed recently
+     */
+    boolean contains(String key, long now) {
+        Long expiration = expirations.get(key);
+        return expiration != null && expiration > now;
+    }
+
+    void clear() {
+        expirations.clear();
+    }
+
+    int size() {
+        return expirations.size();
+    }
+
+    private void removeOldest() {
+        Map.Entry<String, Long> oldest = null;
+        for (Map.Entry<String, Long> entry : expirations.entrySet()) {
+            if (oldest == null || entry.getValue() < oldest.getValue()) {
+                oldest = entry;
+            }
+        }
+        if (oldest != null) {
+            expirations.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    private void removeExpired(long now) {
+        for (Iterator<Map.Entry<String, Long>> it = expirations.entrySet().iterator(); it.hasNext();) {
+            if (it.next().getValue() <= now) {
+                it.remove();
+            }
+        }
+    }
+}
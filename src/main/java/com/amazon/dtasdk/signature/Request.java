@@ -15,9 +15,13 @@
 package com.amazon.dtasdk.signature;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Map;
 import java.util.Set;
@@ -25,7 +29,6 @@ import java.util.TreeMap;
 
 import javax.servlet.http.HttpServletRequest;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 
 /**
@@ -34,15 +37,24 @@ import org.apache.commons.lang.StringUtils;
 public class Request {
     public static final String CONTENT_TYPE_HEADER = "Content-Type";
     public static final String DEFAULT_USER_AGENT = "Mozilla/5.0 (compatible; Amazon Instant Access/1.0";
+    private static final String CONTENT_LENGTH_HEADER = "Content-Length";
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final int MAX_PREALLOCATED_BODY_SIZE = 64 * 1024;
     private String url;
     private Method method;
     private String body;
+    private byte[] bodyBytes;
+    private byte[] bodyHash;
     private Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
     private String userAgent;
 
     /**
      * Creates a Request from an HttpServletRequest. Useful for verifying the signature of a request.
      * 
+     * The body is read as UTF-8 and hashed while it is read, so verifying the signature does not have to go through
+     * the body again.
+     * 
      * NOTE: This consumes the body of the request which can cause issues when you try and read it again.
      * 
      * @param httpServletRequest
@@ -51,16 +63,24 @@ public class Request {
      *             on invalid url or body copying
      */
     public Request(HttpServletRequest httpServletRequest) throws IOException {
-        url = getFullURL(httpServletRequest);
-        method = Method.valueOf(httpServletRequest.getMethod());
+        copyUrlAndHeaders(httpServletRequest);
+        readBody(httpServletRequest.getInputStream());
+    }
 
-        Enumeration<String> headerNames = httpServletRequest.getHeaderNames();
-        while (headerNames.hasMoreElements()) {
-            String name = headerNames.nextElement();
-            headers.put(name, httpServletRequest.getHeader(name));
-        }
-        headers.put(CONTENT_TYPE_HEADER, httpServletRequest.getContentType());
-        body = IOUtils.toString(httpServletRequest.getInputStream());
+    /**
+     * Creates a Request from an HttpServletRequest whose body was already read, see {@link RequestBodyReader}.
+     * 
+     * @param httpServletRequest
+     *            the HttpServletRequest to copy, except for its body
+     * @param bodyBytes
+     *            the body of the request
+     * @param bodyHash
+     *            the SHA-256 hash of the body
+     */
+    Request(HttpServletRequest httpServletRequest, byte[] bodyBytes, byte[] bodyHash) {
+        copyUrlAndHeaders(httpServletRequest);
+        this.bodyBytes = bodyBytes;
+        this.bodyHash = bodyHash;
     }
 
     public Request(String url, Method method, String contentType) {
@@ -96,12 +116,34 @@ public class Request {
 
     public void setBody(String body) {
         this.body = body;
+        this.bodyBytes = null;
+        this.bodyHash = null;
     }
 
     public String getBody() {
+        if (body == null && bodyBytes != null) {
+            body = new String(bodyBytes, CHARSET);
+        }
         return body;
     }
 
+    /**
+     * @return the UTF-8 encoded body of the request, or null if the request has no body
+     */
+    public byte[] getBodyBytes() {
+        if (bodyBytes == null && body != null) {
+            bodyBytes = body.getBytes(CHARSET);
+        }
+        return bodyBytes;
+    }
+
+    /**
+     * @return the SHA-256 hash of the body if it was computed while reading the body, null otherwise
+     */
+    byte[] getBodyHash() {
+        return bodyHash;
+    }
+
     public String getHeader(String headerName) {
         return headers.get(headerName);
     }
@@ -122,6 +164,70 @@ public class Request {
         return headers.keySet();
     }
 
+    private void copyUrlAndHeaders(HttpServletRequest httpServletRequest) {
+        url = getFullURL(httpServletRequest);
+        method = Method.valueOf(httpServletRequest.getMethod());
+
+        Enumeration<String> headerNames = httpServletRequest.getHeaderNames();
+        while (headerNames.hasMoreElements()) {
+            String name = headerNames.nextElement();
+            headers.put(name, httpServletRequest.getHeader(name));
+        }
+        headers.put(CONTENT_TYPE_HEADER, httpServletRequest.getContentType());
+    }
+
+    /**
+     * Reads the whole stream into the body, feeding the content hash as the bytes arrive.
+     */
+    private void readBody(InputStream stream) throws IOException {
+        MessageDigest digest = CanonicalRequestHasher.get().getDigest();
+        byte[] buffer = new byte[getExpectedBodyLength()];
+        int length = 0;
+
+        while (true) {
+            if (length == buffer.length) {
+                // Only grow the buffer if the body turns out to be longer than announced
+                int next = stream.read();
+                if (next < 0) {
+                    break;
+                }
+                buffer = Arrays.copyOf(buffer, Math.max(READ_BUFFER_SIZE, buffer.length * 2));
+                buffer[length] = (byte) next;
+                digest.update(buffer, length, 1);
+                length++;
+            }
+
+            int read = stream.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                break;
+            }
+            digest.update(buffer, length, read);
+            length += read;
+        }
+
+        bodyBytes = length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+        bodyHash = digest.digest();
+    }
+
+    /**
+     * @return the length announced by the Content-Length header, or a default buffer size if it is unknown
+     */
+    private int getExpectedBodyLength() {
+        String contentLength = headers.get(CONTENT_LENGTH_HEADER);
+        if (contentLength != null) {
+            try {
+                int length = Integer.parseInt(contentLength.trim());
+                if (length >= 0) {
+                    // Do not trust the header with a large allocation before any byte is read
+                    return Math.min(length, MAX_PREALLOCATED_BODY_SIZE);
+                }
+            } catch (NumberFormatException e) {
+                // fall back to the default size, the body is read until the end of the stream anyway
+            }
+        }
+        return READ_BUFFER_SIZE;
+    }
+
     private void validateUrl(String inputUrl) {
         if (inputUrl == null) {
             throw new IllegalArgumentException("inputUrl cannot be null");
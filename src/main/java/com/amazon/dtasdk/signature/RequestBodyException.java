@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Raised by {@link RequestBodyReader} when the client does not send an acceptable body, as opposed to the container
+ * failing to read it. The status is the HTTP status the request is answered with.
+ */
+public class RequestBodyException extends IOException {
+    private final int status;
+
+    public RequestBodyException(String message, int status) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * @return {@link HttpServletResponse#SC_REQUEST_ENTITY_TOO_LARGE} if the body is larger than the maximum size, or
+     *         {@link HttpServletResponse#SC_REQUEST_TIMEOUT} if it did not arrive before the deadline
+     */
+    public int getStatus() {
+        return status;
+    }
+}
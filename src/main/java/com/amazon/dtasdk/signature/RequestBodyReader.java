@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Reads the body of an asynchronous servlet request with a {@link ReadListener}, so no thread waits for a slow client
+ * while the body is uploaded.
+ * 
+ * The body is read into pooled buffers as the container reports data is available, and hashed on the way like
+ * {@link Request#Request(HttpServletRequest)} does. The returned stage completes with the {@link Request} once the
+ * whole body was read, or fails with a {@link RequestBodyException} if the body is larger than the maximum size or is
+ * not completely read before the deadline, or with the error the container reports.
+ * 
+ * The request must be in asynchronous mode, see {@link HttpServletRequest#startAsync()}.
+ */
+public final class RequestBodyReader implements ReadListener {
+    public static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10 * 1000;
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final int POOL_SIZE = 64;
+    private static final int MAX_PREALLOCATED_BODY_SIZE = 64 * 1024;
+
+    /** Buffers the bytes are read into before they are hashed and copied into the body */
+    private static final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<byte[]>(POOL_SIZE);
+
+    private static final ScheduledExecutorService deadlines = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "RequestBodyReader-deadline");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final HttpServletRequest request;
+    private final ServletInputStream stream;
+    private final int maxBodySize;
+    private final MessageDigest digest;
+    private final CompletableFuture<Request> result = new CompletableFuture<Request>();
+
+    private volatile ScheduledFuture<?> deadline;
+    private byte[] body;
+    private int length;
+
+    private RequestBodyReader(HttpServletRequest request, ServletInputStream stream, int maxBodySize) {
+        this.request = request;
+        this.stream = stream;
+        this.maxBodySize = maxBodySize;
+        this.body = new byte[Math.min(getExpectedBodyLength(request), maxBodySize)];
+
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Starts reading the body of a request.
+     * 
+     * @param request
+     *            the request, in asynchronous mode
+     * @param maxBodySize
+     *            the maximum size of the body, in bytes
+     * @param timeoutMillis
+     *            how long the whole body can take to arrive, in milliseconds
+     * @return a stage completed with the request once its body is read
+     * @throws IOException
+     *             if the input stream of the request cannot be obtained
+     * @throws IllegalStateException
+     *             if the request is not in asynchronous mode or already has a read listener
+     */
+    public static CompletionStage<Request> read(HttpServletRequest request, int maxBodySize, long timeoutMillis)
+            throws IOException {
+        final RequestBodyReader reader = new RequestBodyReader(request, request.getInputStream(), maxBodySize);
+
+        // Registered first, so a listener the container refuses does not leave a deadline scheduled
+        reader.stream.setReadListener(reader);
+
+        ScheduledFuture<?> deadline = deadlines.schedule(new Runnable() {
+            @Override
+            public void run() {
+                reader.fail(new RequestBodyException("Timed out reading the request body",
+                        HttpServletResponse.SC_REQUEST_TIMEOUT));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        reader.deadline = deadline;
+
+        // The listener may already have read the whole body
+        if (reader.result.isDone()) {
+            deadline.cancel(false);
+        }
+        return reader.result;
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        byte[] chunk = acquireChunk();
+        try {
+            // The container calls this again once more data is available after isReady returned false
+            while (!result.isDone() && stream.isReady()) {
+                int read = stream.read(chunk);
+                if (read < 0) {
+                    break;
+                }
+                append(chunk, read);
+            }
+        } finally {
+            chunks.offer(chunk);
+        }
+    }
+
+    @Override
+    public void onAllDataRead() throws IOException {
+        if (result.isDone()) {
+            return;
+        }
+
+        try {
+            byte[] bodyBytes = length == body.length ? body : Arrays.copyOf(body, length);
+            complete(new Request(request, bodyBytes, digest.digest()));
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        fail(t);
+    }
+
+    private void append(byte[] chunk, int read) {
+        if (read > maxBodySize - length) {
+            fail(new RequestBodyException(String.format("The request body exceeds %d bytes", maxBodySize),
+                    HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE));
+            return;
+        }
+
+        if (length + read > body.length) {
+            body = Arrays.copyOf(body, (int) Math.min(maxBodySize, Math.max(length + read, body.length * 2L)));
+        }
+        System.arraycopy(chunk, 0, body, length, read);
+        digest.update(chunk, 0, read);
+        length += read;
+    }
+
+    private void complete(Request value) {
+        cancelDeadline();
+        result.complete(value);
+    }
+
+    private void fail(Throwable t) {
+        cancelDeadline();
+        result.completeExceptionally(t);
+    }
+
+    private void cancelDeadline() {
+        ScheduledFuture<?> scheduled = deadline;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+    }
+
+    private static byte[] acquireChunk() {
+        byte[] chunk = chunks.poll();
+        return chunk != null ? chunk : new byte[CHUNK_SIZE];
+    }
+
+    /**
+     * @return the length announced by the request, capped so a large announced length does not allocate up front
+     */
+    private static int getExpectedBodyLength(HttpServletRequest request) {
+        int contentLength = request.getContentLength();
+        return contentLength < 0 ? CHUNK_SIZE : Math.min(contentLength, MAX_PREALLOCATED_BODY_SIZE);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formats and parses the dates used by the signature, always in UTC.
+ *
+ * <pre>
+ * date time:  yyyyMMdd'T'HHmmss'Z' (the x-amz-date header)
+ * date stamp: yyyyMMdd             (the credential scope)
+ * </pre>
+ *
+ * The formatted dates of the current second are cached, so formatting the current time is a volatile read most of the
+ * time. Parsing only accepts the exact 16 character layout of the date time, without going through a formatter.
+ */
+final class SignatureDateFormat {
+    /** Returned by {@link #parseDateTime(String)} when the date cannot be parsed */
+    static final long INVALID_DATE = Long.MIN_VALUE;
+
+    static final int DATE_TIME_LENGTH = 16;
+    static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter
+            .ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private static final int DATE_STAMP_LENGTH = 8;
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private static volatile FormattedSecond currentSecond = new FormattedSecond(0);
+
+    private SignatureDateFormat() {
+    }
+
+    /**
+     * @param millis
+     *            the time since the epoch, in milliseconds
+     * @return the time in the yyyyMMdd'T'HHmmss'Z' format
+     */
+    static String formatDateTime(long millis) {
+        return format(millis).dateTime;
+    }
+
+    /**
+     * @param millis
+     *            the time since the epoch, in milliseconds
+     * @return the day of the time in the yyyyMMdd format
+     */
+    static String formatDateStamp(long millis) {
+        return format(millis).dateStamp;
+    }
+
+    /**
+     * Parses a date time in the yyyyMMdd'T'HHmmss'Z' format.
+     *
+     * @param dateTime
+     *            the date time to parse
+     * @return the time since the epoch in milliseconds, or {@link #INVALID_DATE} if the date time is malformed
+     */
+    static long parseDateTime(String dateTime) {
+        if (dateTime == null || dateTime.length() != DATE_TIME_LENGTH || dateTime.charAt(8) != 'T'
+                || dateTime.charAt(15) != 'Z') {
+            return INVALID_DATE;
+        }
+
+        int year = parseDigits(dateTime, 0, 4);
+        int month = parseDigits(dateTime, 4, 6);
+        int day = parseDigits(dateTime, 6, 8);
+        int hour = parseDigits(dateTime, 9, 11);
+        int minute = parseDigits(dateTime, 11, 13);
+        int second = parseDigits(dateTime, 13, 15);
+
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return INVALID_DATE;
+        }
+
+        long seconds = daysSinceEpoch(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+        return seconds * MILLIS_PER_SECOND;
+    }
+
+    /**
+     * Parses a date stamp in the yyyyMMdd format.
+     *
+     * @param dateStamp
+     *            the date stamp to parse
+     * @return the start of the day since the epoch in milliseconds, or {@link #INVALID_DATE} if the date stamp is
+     *         malformed
+     */
+    static long parseDateStamp(String dateStamp) {
+        if (dateStamp == null || dateStamp.length() != DATE_STAMP_LENGTH) {
+            return INVALID_DATE;
+        }
+
+        int year = parseDigits(dateStamp, 0, 4);
+        int month = parseDigits(dateStamp, 4, 6);
+        int day = parseDigits(dateStamp, 6, 8);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            return INVALID_DATE;
+        }
+
+        return daysSinceEpoch(year, month, day) * SECONDS_PER_DAY * MILLIS_PER_SECOND;
+    }
+
+    private static FormattedSecond format(long millis) {
+        long epochSecond = Math.floorDiv(millis, MILLIS_PER_SECOND);
+        FormattedSecond formatted = currentSecond;
+        if (formatted.epochSecond != epochSecond) {
+            formatted = new FormattedSecond(epochSecond);
+            currentSecond = formatted;
+        }
+        return formatted;
+    }
+
+    /**
+     * @return the value of the decimal digits between start and end, or -1 if any character is not a digit
+     */
+    private static int parseDigits(String value, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; ++i) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Days between 1970-01-01 and the given day of the proleptic Gregorian calendar.
+     */
+    private static long daysSinceEpoch(int year, int month, int day) {
+        // Count years from March so the leap day is the last day of the year
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static final class FormattedSecond {
+        private final long epochSecond;
+        private final String dateTime;
+        private final String dateStamp;
+
+        private FormattedSecond(long epochSecond) {
+            this.epochSecond = epochSecond;
+            this.dateTime = DATE_TIME_FORMATTER.format(Instant.ofEpochSecond(epochSecond));
+            this.dateStamp = dateTime.substring(0, DATE_STAMP_LENGTH);
+        }
+    }
+}
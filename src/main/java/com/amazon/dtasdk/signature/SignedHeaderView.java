@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The names of the headers of a request that are listed in the signed headers of its authorization header, in the
+ * order of the request.
+ * 
+ * The header names of a {@link Request} are sorted ignoring case, and a valid signed headers list is sorted the same
+ * way, so both are walked together once instead of looking up every header in the list. Names of an unsorted list
+ * are skipped, which can only happen for a list that does not match the signature anyway.
+ */
+final class SignedHeaderView implements Iterable<String> {
+    private final Iterable<String> headerNames;
+    private final String signedHeaders;
+    private final String excludedHeader;
+
+    /**
+     * @param headerNames
+     *            the header names of the request, sorted by {@link String#CASE_INSENSITIVE_ORDER}
+     * @param signedHeaders
+     *            the signed headers, separated by semicolons
+     * @param excludedHeader
+     *            a header that is never part of the view, even if it is listed in the signed headers
+     */
+    SignedHeaderView(Iterable<String> headerNames, String signedHeaders, String excludedHeader) {
+        this.headerNames = headerNames;
+        this.signedHeaders = signedHeaders;
+        this.excludedHeader = excludedHeader;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Merge(headerNames.iterator());
+    }
+
+    private final class Merge implements Iterator<String> {
+        private final Iterator<String> names;
+        private String next;
+        private int tokenStart;
+        private int tokenEnd;
+
+        private Merge(Iterator<String> names) {
+            this.names = names;
+            this.tokenEnd = tokenEnd(0);
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            String result = next;
+            advance();
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && tokenStart <= signedHeaders.length() && names.hasNext()) {
+                String name = names.next();
+                if (name.equalsIgnoreCase(excludedHeader)) {
+                    continue;
+                }
+
+                int comparison = compareToToken(name);
+                while (comparison > 0 && nextToken()) {
+                    comparison = compareToToken(name);
+                }
+
+                if (comparison == 0) {
+                    next = name;
+                    nextToken();
+                }
+            }
+        }
+
+        /**
+         * @return false if there is no token left
+         */
+        private boolean nextToken() {
+            tokenStart = tokenEnd + 1;
+            if (tokenStart > signedHeaders.length()) {
+                return false;
+            }
+            tokenEnd = tokenEnd(tokenStart);
+            return true;
+        }
+
+        private int tokenEnd(int start) {
+            int end = signedHeaders.indexOf(';', start);
+            return end < 0 ? signedHeaders.length() : end;
+        }
+
+        /**
+         * Compares a name with the current token the same way {@link String#CASE_INSENSITIVE_ORDER} does.
+         */
+        private int compareToToken(String name) {
+            if (tokenStart > signedHeaders.length()) {
+                return -1;
+            }
+
+            int length = Math.min(name.length(), tokenEnd - tokenStart);
+            for (int i = 0; i < length; ++i) {
+                char c1 = name.charAt(i);
+                char c2 = signedHeaders.charAt(tokenStart + i);
+                if (c1 != c2) {
+                    c1 = Character.toUpperCase(c1);
+                    c2 = Character.toUpperCase(c2);
+                    if (c1 != c2) {
+                        c1 = Character.toLowerCase(c1);
+                        c2 = Character.toLowerCase(c2);
+                        if (c1 != c2) {
+                            return c1 - c2;
+                        }
+                    }
+                }
+            }
+            return name.length() - (tokenEnd - tokenStart);
+        }
+    }
+}
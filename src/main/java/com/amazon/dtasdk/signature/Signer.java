@@ -20,15 +20,14 @@ import java.net.URL;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
+import java.util.EnumMap;
 import java.util.List;
-import java.util.SimpleTimeZone;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
-import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
 import com.amazon.dtasdk.utils.BinaryUtils;
@@ -56,28 +55,24 @@ public class Signer {
 
     private Clock clock;
     private AuthenticationHeaderParser authenticationHeaderParser;
+    private final SigningKeyCache signingKeyCache = new SigningKeyCache();
+    private final Map<VerificationResult, LongAdder> verificationCounts = newVerificationCounts();
     protected static final String ALGORITHM = "HmacSHA256";
 
+    /** One Mac per thread, so signing does not look up the provider on every request */
+    private static final MacPool macPool = new MacPool(ALGORITHM);
+
     /** The default encoding to use when URL encoding */
     protected static final String DEFAULT_ENCODING = "UTF-8";
 
-    protected ThreadLocal<SimpleDateFormat> dateTimeFormat = new ThreadLocal<SimpleDateFormat>() {
-        @Override
-        protected SimpleDateFormat initialValue() {
-            SimpleDateFormat dateTimeFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
-            dateTimeFormat.setTimeZone(new SimpleTimeZone(0, "UTC"));
-            return dateTimeFormat;
-        }
-    };
-
-    protected ThreadLocal<SimpleDateFormat> dateStampFormat = new ThreadLocal<SimpleDateFormat>() {
-        @Override
-        protected SimpleDateFormat initialValue() {
-            SimpleDateFormat dateStampFormat = new SimpleDateFormat("yyyyMMdd");
-            dateStampFormat.setTimeZone(new SimpleTimeZone(0, "UTC"));
-            return dateStampFormat;
+    private static Map<VerificationResult, LongAdder> newVerificationCounts() {
+        Map<VerificationResult, LongAdder> counts = new EnumMap<VerificationResult, LongAdder>(
+                VerificationResult.class);
+        for (VerificationResult result : VerificationResult.values()) {
+            counts.put(result, new LongAdder());
         }
-    };
+        return counts;
+    }
 
     /**
      * Creates a complete Signer ready to be used.
@@ -118,7 +113,7 @@ public class Signer {
     }
 
     /**
-     * Verifies the request against a credential store.
+     * Verifies the request against a credential store. The request is not modified, so it can be read concurrently.
      * 
      * @param request
      *            the request to verify. Typically created from an HttpServletRequest.
@@ -127,80 +122,158 @@ public class Signer {
      * @return true if the request validates. false for any other reason except a SigningException.
      * @throws SigningException
      *             if there was a problem with the underlying crypto.
+     * @see #verifyRequest(Request, CredentialStore)
      */
     public boolean verify(Request request, CredentialStore credentialStore) throws SigningException {
-        Date now = clock.now();
-        String strDate = dateStampFormat.get().format(now);
-        String dateTime = request.getHeader(X_AMZ_DATE_HEADER);
+        return verifyRequest(request, credentialStore).isValid();
+    }
 
+    /**
+     * Verifies the request against a credential store and tells why it does not validate. The request is not
+     * modified.
+     * 
+     * The checks run from the cheapest to the most expensive: the presence and format of the headers first, then the
+     * date of the request against the clock, then the lookup of the credential, and only then the hashing of the
+     * request. The number of requests of each result is available from {@link #getVerificationCount}.
+     * 
+     * @param request
+     *            the request to verify. Typically created from an HttpServletRequest.
+     * @param credentialStore
+     *            the credential store used to verify the request.
+     * @return {@link VerificationResult#VALID} if the request validates, the reason of the failure otherwise.
+     * @throws SigningException
+     *             if there was a problem with the underlying crypto.
+     */
+    public VerificationResult verifyRequest(Request request, CredentialStore credentialStore) throws SigningException {
+        String dateTime = request.getHeader(X_AMZ_DATE_HEADER);
         if (dateTime == null) {
-            return false;
+            return record(VerificationResult.MISSING_DATE);
         }
 
         // Fail if the Authentication header is not found
         String actualAuthorization = request.getHeader(AUTHORIZATION_HEADER);
         if (actualAuthorization == null || "".equals(actualAuthorization)) {
-            return false;
+            return record(VerificationResult.MISSING_AUTHORIZATION);
         }
 
-        request.removeHeader(AUTHORIZATION_HEADER);
+        long dateOfRequest = SignatureDateFormat.parseDateTime(dateTime);
+        if (dateOfRequest == SignatureDateFormat.INVALID_DATE) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Could not parse request date of [%s]", dateTime));
+            }
+            return record(VerificationResult.BAD_FORMAT);
+        }
 
-        // Clear any header that isn't in the list of signed signedHeaders
         AuthenticationHeader authenticationHeader = authenticationHeaderParser.parse(actualAuthorization);
+        if (authenticationHeader == null || !ALGORITHM_HEADER.equals(authenticationHeader.getAlgorithm())) {
+            return record(VerificationResult.BAD_FORMAT);
+        }
 
-        if (authenticationHeader == null) {
-            return false;
+        // The credential info should follow this pattern: KEYID/DATE
+        String keyId = authenticationHeader.getCredentialKeyId();
+        if (keyId == null || authenticationHeader.getCredentialDate().isEmpty()) {
+            log.debug("Could not get the credential information from the authorization header");
+            return record(VerificationResult.BAD_FORMAT);
         }
 
-        String[] signedHeaders = authenticationHeader.getSignedHeaders().split(";");
+        long now = clock.currentTimeMillis();
+        if (Math.abs(dateOfRequest - now) > TIME_TOLERANCE) {
+            return record(VerificationResult.CLOCK_SKEW);
+        }
 
-        removeUnsignedHeaders(request, signedHeaders);
+        // Requests are signed with the key of their day, which can be the previous or the next day around midnight
+        String strDate = authenticationHeader.getCredentialDate();
+        if (!isScopeDateValid(strDate, now)) {
+            return record(VerificationResult.CLOCK_SKEW);
+        }
 
-        try {
-            Date dateOfRequest = dateTimeFormat.get().parse(dateTime);
-            long delta = dateOfRequest.getTime() - now.getTime();
-            if (Math.abs(delta) > TIME_TOLERANCE) {
-                return false;
-            }
-        } catch (ParseException pe) {
-            log.warn(String.format("Could not parse request date of [%s]", dateTime), pe);
-            return false;
+        Credential credential = credentialStore.find(keyId);
+        if (credential == null) {
+            return record(VerificationResult.UNKNOWN_KEY);
         }
 
-        // The credential info should follow this pattern: KEYID/DATE
-        String[] credentialInfo = authenticationHeader.getCredential().split("/");
+        // Only the signed headers are part of the signature, the request itself is left untouched
+        Iterable<String> signedHeaders = new SignedHeaderView(request.getHeaderNames(),
+                authenticationHeader.getSignedHeaders(), AUTHORIZATION_HEADER);
 
-        if (credentialInfo.length < 2) {
-            log.warn("Could not get the credential information from the authorization header");
-            return false;
+        SecretKeySpec timedKey = getSigningKey(credential, strDate);
+        StringBuilder signedHeadersString = new StringBuilder();
+        byte[] signature = computeSignature(request, signedHeaders, dateTime, timedKey, signedHeadersString);
+
+        if (!matchesAuthorization(actualAuthorization, authenticationHeader, signedHeadersString,
+                credential.getPublicKey(), strDate, signature)) {
+            return record(VerificationResult.BAD_SIGNATURE);
         }
+        return record(VerificationResult.VALID);
+    }
 
-        Credential credential;
-        try {
-            credential = credentialStore.get(credentialInfo[0]);
-        } catch (CredentialNotFoundException e) {
-            log.warn(String.format("Public key not found [%s]", credentialInfo[0]));
-            return false;
+    /**
+     * The scope date of a request is valid when its day overlaps the window of {@link #TIME_TOLERANCE} around the
+     * current time, so a request signed right before midnight is still valid right after it.
+     */
+    private static boolean isScopeDateValid(String dateStamp, long now) {
+        // Most requests are signed on the same day they are verified
+        if (dateStamp.equals(SignatureDateFormat.formatDateStamp(now))) {
+            return true;
         }
 
-        byte[] timedKey = sign(strDate, credential.getSecretKey());
-        String canonicalRequest = getCanonicalRequest(request);
-        String stringToSign = getStringToSign(ALGORITHM_HEADER, dateTime, "", canonicalRequest);
-        String signature = BinaryUtils.toHex(sign(stringToSign, timedKey));
+        long startOfDay = SignatureDateFormat.parseDateStamp(dateStamp);
+        return startOfDay != SignatureDateFormat.INVALID_DATE && startOfDay <= now + TIME_TOLERANCE
+                && startOfDay + SignatureDateFormat.MILLIS_PER_DAY > now - TIME_TOLERANCE;
+    }
 
-        String computedAuthorization = String.format("%s SignedHeaders=%s, Credential=%s/%s, Signature=%s",
-                ALGORITHM_HEADER, getSignedHeadersString(request), credential.getPublicKey(), strDate, signature);
+    /**
+     * @param result
+     *            a result of {@link #verifyRequest(Request, CredentialStore)}
+     * @return the number of verifications of this signer that ended with the result
+     */
+    public long getVerificationCount(VerificationResult result) {
+        return verificationCounts.get(result).sum();
+    }
 
-        if (computedAuthorization.equals(actualAuthorization)) {
-            return true;
-        } else {
+    private VerificationResult record(VerificationResult result) {
+        verificationCounts.get(result).increment();
+        if (result != VerificationResult.VALID && log.isDebugEnabled()) {
+            log.debug(String.format("Request verification failed [%s]", result));
+        }
+        return result;
+    }
+
+    /**
+     * Checks the authorization header of a request against the expected one, component by component. This is
+     * equivalent to comparing the header with the expected
+     * "ALGORITHM SignedHeaders=HEADERS, Credential=KEYID/DATE, Signature=SIGNATURE" string, except that the signature
+     * is compared in constant time on its raw bytes.
+     */
+    private boolean matchesAuthorization(String actualAuthorization, AuthenticationHeader authenticationHeader,
+            CharSequence signedHeadersString, String publicKey, String dateStamp, byte[] signature) {
+        String actualCredential = authenticationHeader.getCredential();
+        String actualSignature = authenticationHeader.getSignature();
+
+        // The parser may match a part of the header only, which is the whole header only if the lengths add up
+        int expectedLength = ALGORITHM_HEADER.length() + " SignedHeaders=".length() + signedHeadersString.length()
+                + ", Credential=".length() + actualCredential.length() + ", Signature=".length()
+                + actualSignature.length();
+        if (actualAuthorization.length() != expectedLength) {
             return false;
         }
+
+        if (!authenticationHeader.getSignedHeaders().contentEquals(signedHeadersString)) {
+            return false;
+        }
+
+        if (actualCredential.length() != publicKey.length() + 1 + dateStamp.length()
+                || !actualCredential.startsWith(publicKey) || actualCredential.charAt(publicKey.length()) != '/'
+                || !actualCredential.endsWith(dateStamp)) {
+            return false;
+        }
+
+        return CanonicalRequestHasher.get().matchesHex(actualSignature, signature);
     }
 
     /**
      * Trims out any headers that were not signed from the request to allow easier calculation of the signature for
-     * verification.
+     * verification. {@link #verify(Request, CredentialStore)} no longer modifies the request and does not call this.
      * 
      * @param request
      *            the request to remove headers from.
@@ -239,33 +312,129 @@ public class Signer {
      *             if there was a problem with the underlying crypto.
      */
     public void sign(Request request, Credential credential) throws SigningException {
-        Date now = clock.now();
-        String strDate = dateStampFormat.get().format(now);
-        String dateTime = dateTimeFormat.get().format(now);
+        long now = clock.currentTimeMillis();
+        String strDate = SignatureDateFormat.formatDateStamp(now);
+        String dateTime = SignatureDateFormat.formatDateTime(now);
 
         request.setHeader(X_AMZ_DATE_HEADER, dateTime);
 
-        byte[] timedKey = sign(strDate, credential.getSecretKey());
+        SecretKeySpec timedKey = getSigningKey(credential, strDate);
 
         // Remove the Authorization header from the request, since it could have been set if sign() was previously
         // called on this request.
         request.removeHeader(AUTHORIZATION_HEADER);
 
-        String canonicalRequest = getCanonicalRequest(request);
-
-        String stringToSign = getStringToSign(ALGORITHM_HEADER, dateTime, "", canonicalRequest);
-
-        String signature = BinaryUtils.toHex(sign(stringToSign, timedKey));
+        StringBuilder signedHeadersString = new StringBuilder();
+        byte[] signature = computeSignature(request, request.getHeaderNames(), dateTime, timedKey,
+                signedHeadersString);
 
         StringBuilder builder = new StringBuilder();
         builder.append(ALGORITHM_HEADER).append(" ");
-        builder.append("SignedHeaders=").append(getSignedHeadersString(request)).append(", ");
+        builder.append("SignedHeaders=").append(signedHeadersString).append(", ");
         builder.append("Credential=").append(credential.getPublicKey()).append("/").append(strDate).append(", ");
-        builder.append("Signature=").append(signature);
+        builder.append("Signature=");
+        BinaryUtils.appendHex(signature, builder);
 
         request.setHeader("Authorization", builder.toString());
     }
 
+    /**
+     * Returns the key used to sign the requests of a credential on a given day. The key is derived from the secret key
+     * once per day and cached for the following requests.
+     *
+     * @param credential
+     *            the credential to get the key for.
+     * @param dateStamp
+     *            the day of the request, in the yyyyMMdd format.
+     * @return the derived signing key
+     * @throws SigningException
+     *             if there was a problem with the underlying crypto.
+     */
+    protected SecretKeySpec getSigningKey(Credential credential, String dateStamp) throws SigningException {
+        SecretKeySpec timedKey = signingKeyCache.get(credential, dateStamp);
+        if (timedKey == null) {
+            timedKey = new SecretKeySpec(sign(dateStamp, credential.getSecretKey()), ALGORITHM);
+            signingKeyCache.put(credential, dateStamp, timedKey);
+        }
+        return timedKey;
+    }
+
+    /**
+     * Derives and caches the signing keys of credentials for the day of a given time, so the first requests of that
+     * day do not have to derive them. See {@link SigningKeyScheduler} to do it before every day starts.
+     *
+     * @param credentials
+     *            the credentials to derive the keys of.
+     * @param time
+     *            a time of the day of the keys, in milliseconds since the epoch.
+     * @throws SigningException
+     *             if there was a problem with the underlying crypto.
+     */
+    public void deriveSigningKeys(Iterable<Credential> credentials, long time) throws SigningException {
+        String dateStamp = SignatureDateFormat.formatDateStamp(time);
+        if (credentials instanceof Collection) {
+            signingKeyCache.ensureCapacity(((Collection<?>) credentials).size());
+        }
+        for (Credential credential : credentials) {
+            getSigningKey(credential, dateStamp);
+        }
+    }
+
+    /**
+     * Computes the signature of the request in a single pass over its content. This is equivalent to signing the
+     * result of {@link #getStringToSign(String, String, String, String)} for the {@link #getCanonicalRequest(Request)}
+     * of the request, without building either string.
+     *
+     * @param request
+     *            the request to sign.
+     * @param headerNames
+     *            the names of the headers of the request to sign, sorted ignoring case.
+     * @param dateTime
+     *            the date of the request, as sent in the x-amz-date header.
+     * @param timedKey
+     *            the signing key of the day.
+     * @param signedHeadersString
+     *            receives the names of the signed headers, as returned by {@link #getSignedHeadersString(Request)}.
+     * @return the raw signature
+     * @throws SigningException
+     *             if there was a problem with the underlying crypto.
+     */
+    protected byte[] computeSignature(Request request, Iterable<String> headerNames, String dateTime,
+            SecretKeySpec timedKey, StringBuilder signedHeadersString) throws SigningException {
+        if (log.isDebugEnabled()) {
+            log.debug("AWS4 Canonical Request: '\"" + getCanonicalRequest(withHeaders(request, headerNames)) + "\"'");
+        }
+
+        CanonicalRequestHasher hasher = CanonicalRequestHasher.get();
+        byte[] canonicalRequestHash = hasher.hashCanonicalRequest(request, headerNames,
+                getCanonicalizedResourcePath(getResourcePath(request)), signedHeadersString);
+
+        try {
+            return hasher.sign(macPool.acquire(timedKey), ALGORITHM_HEADER, dateTime, "", canonicalRequestHash);
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new SigningException(nsae);
+        } catch (InvalidKeyException ike) {
+            throw new SigningException(ike);
+        }
+    }
+
+    /**
+     * @return a copy of the request with only the given headers, or the request itself if it has no other header
+     */
+    private static Request withHeaders(Request request, Iterable<String> headerNames) {
+        if (headerNames == request.getHeaderNames()) {
+            return request;
+        }
+
+        Request copy = new Request(request.getUrl(), request.getMethod(), null);
+        copy.removeHeader(Request.CONTENT_TYPE_HEADER);
+        for (String header : headerNames) {
+            copy.setHeader(header, request.getHeader(header));
+        }
+        copy.setBody(request.getBody());
+        return copy;
+    }
+
     /**
      * Calculates and returns the content hash of the request. Per AwsAuthV4, we don't sign the body, we sign the hash
      * of the body. This allows validation to be offloaded to other servers more easily.
@@ -277,6 +446,10 @@ public class Signer {
      *             if there was a problem with the underlying crypto.
      */
     protected String getContentHash(Request request) throws SigningException {
+        if (request.getBodyHash() != null) {
+            return BinaryUtils.toHex(request.getBodyHash());
+        }
+
         String body = request.getBody();
         if (body == null) {
             body = "";
@@ -387,16 +560,8 @@ public class Signer {
      */
     protected String getCanonicalRequest(Request request) throws SigningException {
         /* This would url-encode the resource path for the first time */
-
-        URL url;
-        try {
-            url = new URL(request.getUrl());
-        } catch (MalformedURLException murle) {
-            log.warn(String.format("Unable to parse url [%s]", request.getUrl()));
-            throw new SigningException(murle);
-        }
-
-        String canonicalRequest = request.getMethod().toString() + "\n" + getCanonicalizedResourcePath(url.getPath())
+        String canonicalRequest = request.getMethod().toString() + "\n"
+                + getCanonicalizedResourcePath(getResourcePath(request))
                 + "\n" + "\n"
                 + // Query String would go here
                 getCanonicalizedHeaderString(request) + "\n" + getSignedHeadersString(request) + "\n"
@@ -405,6 +570,15 @@ public class Signer {
         return canonicalRequest;
     }
 
+    private String getResourcePath(Request request) throws SigningException {
+        try {
+            return new URL(request.getUrl()).getPath();
+        } catch (MalformedURLException murle) {
+            log.warn(String.format("Unable to parse url [%s]", request.getUrl()));
+            throw new SigningException(murle);
+        }
+    }
+
     protected String getStringToSign(String algorithm, String dateTime, String scope, String canonicalRequest)
             throws SigningException {
         String stringToSign = algorithm + "\n" + dateTime + "\n" + scope + "\n"
@@ -417,15 +591,21 @@ public class Signer {
         return sign(stringToSign.getBytes(), key);
     }
 
+    protected final byte[] sign(String stringToSign, SecretKeySpec key) throws SigningException {
+        return sign(stringToSign.getBytes(), key);
+    }
+
     protected final byte[] sign(String data, String key) throws SigningException {
         return sign(data.getBytes(), key.getBytes());
     }
 
     protected final byte[] sign(byte[] dataBytes, byte[] keyBytes) throws SigningException {
+        return sign(dataBytes, new SecretKeySpec(keyBytes, ALGORITHM));
+    }
+
+    protected final byte[] sign(byte[] dataBytes, SecretKeySpec key) throws SigningException {
         try {
-            Mac mac = Mac.getInstance(ALGORITHM);
-            mac.init(new SecretKeySpec(keyBytes, ALGORITHM));
-            return mac.doFinal(dataBytes);
+            return macPool.acquire(key).doFinal(dataBytes);
         } catch (NoSuchAlgorithmException nsae) {
             throw new SigningException(nsae);
         } catch (InvalidKeyException ike) {
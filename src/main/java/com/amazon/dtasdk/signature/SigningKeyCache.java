@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Caches the per-day signing keys derived from the secret key of a credential.
+ *
+ * The derived key only depends on the secret key and the date stamp, so it only has to be computed once per credential
+ * per UTC day. Keys are kept as {@link SecretKeySpec} objects so they can be handed to a Mac as they are. Entries are
+ * keyed by the credential scope (PUBLIC_KEY/DATE) and remember the secret key they were derived from, so replacing the
+ * secret of a public key invalidates the cached key on the next lookup.
+ *
+ * Entries older than the previous day are dropped as soon as a newer day is cached, and the cache never grows beyond
+ * its number of entries. When it is full, the keys of its oldest day are dropped to make room for a newer day, and keys
+ * are not cached when every entry is of the same day or a newer one. {@link #ensureCapacity(int)} sizes it for the
+ * keys of three days of every credential, so deriving the keys of the next day does not drop the ones in use.
+ */
+class SigningKeyCache {
+    static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private final ConcurrentHashMap<String, DerivedKey> keys = new ConcurrentHashMap<String, DerivedKey>();
+    private volatile int maxEntries;
+
+    private volatile String newestDateStamp = "";
+
+    SigningKeyCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    SigningKeyCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Grows the cache so it holds the keys of the previous, current and next day of a number of credentials.
+     *
+     * @param credentialCount
+     *            the number of credentials whose keys are cached
+     */
+    void ensureCapacity(int credentialCount) {
+        int capacity = (int) Math.min(Integer.MAX_VALUE, 3L * credentialCount);
+        if (capacity > maxEntries) {
+            maxEntries = capacity;
+        }
+    }
+
+    /**
+     * Gets the cached signing key of a credential for a given day.
+     *
+     * @param credential
+     *            the credential the key was derived from
+     * @param dateStamp
+     *            the day of the key, in the yyyyMMdd format
+     * @return the derived key, or null if it is not cached or was derived from a different secret key
+     */
+    SecretKeySpec get(Credential credential, String dateStamp) {
+        DerivedKey derivedKey = keys.get(scope(credential.getPublicKey(), dateStamp));
+        if (derivedKey == null || !derivedKey.secretKey.equals(credential.getSecretKey())) {
+            return null;
+        }
+        return derivedKey.key;
+    }
+
+    /**
+     * Caches the signing key of a credential for a given day.
+     *
+     * @param credential
+     *            the credential the key was derived from
+     * @param dateStamp
+     *            the day of the key, in the yyyyMMdd format
+     * @param key
+     *            the derived key
+     */
+    void put(Credential credential, String dateStamp, SecretKeySpec key) {
+        String previousDateStamp = newestDateStamp;
+        if (dateStamp.compareTo(previousDateStamp) > 0) {
+            newestDateStamp = dateStamp;
+            // Only keep the day that just ended, requests signed right before midnight can still arrive
+            evictOlderThan(previousDateStamp);
+        }
+
+        if (keys.size() >= maxEntries && !evictOldestDayBefore(dateStamp)) {
+            return;
+        }
+
+        keys.put(scope(credential.getPublicKey(), dateStamp),
+                new DerivedKey(dateStamp, credential.getSecretKey(), key));
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    /**
+     * Drops the keys of the oldest day cached, if it is older than a given day.
+     *
+     * @return true if keys were dropped
+     */
+    private boolean evictOldestDayBefore(String dateStamp) {
+        String oldestDateStamp = dateStamp;
+        for (DerivedKey derivedKey : keys.values()) {
+            if (derivedKey.dateStamp.compareTo(oldestDateStamp) < 0) {
+                oldestDateStamp = derivedKey.dateStamp;
+            }
+        }
+        if (oldestDateStamp.equals(dateStamp)) {
+            return false;
+        }
+
+        Iterator<DerivedKey> iterator = keys.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().dateStamp.equals(oldestDateStamp)) {
+                iterator.remove();
+            }
+        }
+        return true;
+    }
+
+    private void evictOlderThan(String dateStamp) {
+        Iterator<DerivedKey> iterator = keys.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().dateStamp.compareTo(dateStamp) < 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String scope(String publicKey, String dateStamp) {
+        return publicKey + "/" + dateStamp;
+    }
+
+    private static final class DerivedKey {
+        private final String dateStamp;
+        private final String secretKey;
+        private final SecretKeySpec key;
+
+        private DerivedKey(String dateStamp, String secretKey, SecretKeySpec key) {
+            this.dateStamp = dateStamp;
+            this.secretKey = secretKey;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazon.dtasdk.utils.Clock;
+
+/**
+ * Derives the signing keys of every credential of a {@link CredentialStore} for the next UTC day shortly before it
+ * starts, so the requests right after midnight are not slowed down by deriving the keys of the new day.
+ * 
+ * The keys of the current day are derived when the scheduler starts, then the keys of the next day are derived
+ * every day from a daemon thread, the lead time before midnight. Credentials added later have their keys derived on
+ * their first request, as usual. The Instant Access servlets run one for their own signer between init and destroy
+ * when a subclass enables it with a positive signing key lead.
+ * 
+ * <pre>
+ * SigningKeyScheduler scheduler = new SigningKeyScheduler(signer, store);
+ * scheduler.start();
+ * ...
+ * scheduler.close();
+ * </pre>
+ */
+public class SigningKeyScheduler implements Closeable {
+    private static final Log log = LogFactory.getLog(SigningKeyScheduler.class);
+
+    public static final long DEFAULT_LEAD_MILLIS = 5 * 60 * 1000;
+
+    private final Signer signer;
+    private final CredentialStore store;
+    private final long leadMillis;
+    private final Clock clock;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a scheduler deriving the keys of the next day {@link #DEFAULT_LEAD_MILLIS} before midnight.
+     * 
+     * @param signer
+     *            the signer caching the keys
+     * @param store
+     *            the credentials to derive the keys of
+     */
+    public SigningKeyScheduler(Signer signer, CredentialStore store) {
+        this(signer, store, DEFAULT_LEAD_MILLIS);
+    }
+
+    /**
+     * @param signer
+     *            the signer caching the keys
+     * @param store
+     *            the credentials to derive the keys of
+     * @param leadMillis
+     *            how long before midnight the keys of the next day are derived, at most {@link Signer#TIME_TOLERANCE}
+     *            so the keys of the current day stay cached
+     */
+    public SigningKeyScheduler(Signer signer, CredentialStore store, long leadMillis) {
+        this(signer, store, leadMillis, new Clock());
+    }
+
+    SigningKeyScheduler(Signer signer, CredentialStore store, long leadMillis, Clock clock) {
+        if (leadMillis <= 0 || leadMillis > Signer.TIME_TOLERANCE) {
+            throw new IllegalArgumentException("leadMillis must be positive and at most Signer.TIME_TOLERANCE");
+        }
+        this.signer = signer;
+        this.store = store;
+        this.leadMillis = leadMillis;
+        this.clock = clock;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SigningKeyScheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Derives the keys of the current day, then schedules the derivation of the keys of every next day.
+     * 
+     * @throws SigningException
+     *             if there was a problem with the underlying crypto.
+     */
+    public void start() throws SigningException {
+        signer.deriveSigningKeys(store.getAll(), clock.currentTimeMillis());
+        schedule(deriveKeys());
+    }
+
+    /**
+     * Stops deriving keys. The keys already derived stay cached by the signer.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Derives the keys of the next day if it starts within the lead time.
+     * 
+     * @return the delay until the keys of the following day should be derived, in milliseconds
+     */
+    long deriveKeys() {
+        long now = clock.currentTimeMillis();
+        long day = SignatureDateFormat.MILLIS_PER_DAY;
+        long nextDay = (Math.floorDiv(now, day) + 1) * day;
+
+        if (now >= nextDay - leadMillis) {
+            try {
+                signer.deriveSigningKeys(store.getAll(), nextDay);
+            } catch (SigningException e) {
+                log.error("Unable to derive the signing keys of the next day", e);
+            } catch (RuntimeException e) {
+                log.error("Unable to derive the signing keys of the next day", e);
+            }
+            nextDay += day;
+        }
+
+        return nextDay - leadMillis - now;
+    }
+
+    private void schedule(long delayMillis) {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                schedule(deriveKeys());
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+}
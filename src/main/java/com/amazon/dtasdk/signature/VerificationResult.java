@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+/**
+ * The outcome of verifying the signature of a request, see {@link Signer#verifyRequest(Request, CredentialStore)}.
+ */
+public enum VerificationResult {
+    /** The signature is valid */
+    VALID,
+    /** The request has no x-amz-date header */
+    MISSING_DATE,
+    /** The request has no Authorization header */
+    MISSING_AUTHORIZATION,
+    /** The x-amz-date or the Authorization header is malformed, or uses an unknown algorithm */
+    BAD_FORMAT,
+    /** The date of the request or of its credential is outside of the accepted window */
+    CLOCK_SKEW,
+    /** The credential store has no credential for the public key of the request */
+    UNKNOWN_KEY,
+    /** The signature does not match the content of the request */
+    BAD_SIGNATURE;
+
+    public boolean isValid() {
+        return this == VALID;
+    }
+}
@@ -19,7 +19,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.UnsupportedEncodingException;
-import java.util.Locale;
+import java.util.Arrays;
 
 // Complete https://tt.amazon.com/0026066375 before open release WHOLE CLASS
 /**
@@ -32,50 +32,116 @@ public class BinaryUtils {
 
     private static final Log log = LogFactory.getLog(BinaryUtils.class);
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** The value of every ASCII hex digit, in lower or upper case, -1 for the other characters */
+    private static final byte[] HEX_VALUES = new byte[128];
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+        }
+    }
+
     /**
      * Converts byte data to a Hex-encoded string.
      *
      * @param data
      *            data to hex encode.
      *
-     * @return hex-encoded string.
+     * @return hex-encoded string, in lower case.
      */
     public static String toHex(byte[] data) {
-        StringBuilder sb = new StringBuilder(data.length * 2);
+        char[] hex = new char[data.length * 2];
+        toHex(data, hex, 0);
+        return new String(hex);
+    }
+
+    /**
+     * Hex encodes byte data into a char array.
+     *
+     * @param data
+     *            data to hex encode.
+     * @param destination
+     *            receives the lower case hex digits, two per byte.
+     * @param offset
+     *            the index of the first digit in the destination.
+     */
+    public static void toHex(byte[] data, char[] destination, int offset) {
         for (int i = 0; i < data.length; i++) {
-            String hex = Integer.toHexString(data[i]);
-            if (hex.length() == 1) {
-                // Append leading zero.
-                sb.append("0");
-            } else if (hex.length() == 8) {
-                // Remove ff prefix from negative numbers.
-                hex = hex.substring(6);
-            }
-            sb.append(hex);
+            destination[offset++] = HEX_DIGITS[(data[i] >> 4) & 0xf];
+            destination[offset++] = HEX_DIGITS[data[i] & 0xf];
+        }
+    }
+
+    /**
+     * Appends the hex encoding of byte data to a StringBuilder.
+     *
+     * @param data
+     *            data to hex encode.
+     * @param destination
+     *            receives the lower case hex digits, two per byte.
+     */
+    public static void appendHex(byte[] data, StringBuilder destination) {
+        destination.ensureCapacity(destination.length() + data.length * 2);
+        for (int i = 0; i < data.length; i++) {
+            destination.append(HEX_DIGITS[(data[i] >> 4) & 0xf]).append(HEX_DIGITS[data[i] & 0xf]);
         }
-        return sb.toString().toLowerCase(Locale.getDefault());
     }
 
     /**
      * Converts a Hex-encoded data string to the original byte data.
      *
      * @param hexData
-     *            hex-encoded data to decode.
+     *            hex-encoded data to decode, in lower or upper case.
      * @return decoded data from the hex string.
+     * @throws NumberFormatException
+     *             if the string has an odd length or a character that is not a hex digit.
      */
     public static byte[] fromHex(String hexData) {
         byte[] result = new byte[(hexData.length() + 1) / 2];
-        String hexNumber = null;
-        int stringOffset = 0;
-        int byteOffset = 0;
-        while (stringOffset < hexData.length()) {
-            hexNumber = hexData.substring(stringOffset, stringOffset + 2);
-            stringOffset += 2;
-            result[byteOffset++] = (byte) Integer.parseInt(hexNumber, 16);
-        }
+        fromHex(hexData, result, 0);
         return result;
     }
 
+    /**
+     * Decodes Hex-encoded data into a byte array.
+     *
+     * @param hexData
+     *            hex-encoded data to decode, in lower or upper case.
+     * @param destination
+     *            receives the decoded bytes, one per pair of digits.
+     * @param offset
+     *            the index of the first decoded byte in the destination.
+     * @return the number of decoded bytes.
+     * @throws NumberFormatException
+     *             if the data has an odd length or a character that is not a hex digit.
+     */
+    public static int fromHex(CharSequence hexData, byte[] destination, int offset) {
+        int length = hexData.length();
+        if (length % 2 != 0) {
+            throw new NumberFormatException("Odd number of hex digits: " + length);
+        }
+
+        for (int i = 0; i < length; i += 2) {
+            int high = hexValue(hexData.charAt(i));
+            int low = hexValue(hexData.charAt(i + 1));
+            if (high < 0 || low < 0) {
+                throw new NumberFormatException("Invalid hex digits at index " + i);
+            }
+            destination[offset++] = (byte) ((high << 4) | low);
+        }
+        return length / 2;
+    }
+
+    /**
+     * @return the value of a hex digit, in lower or upper case, or -1 if the character is not a hex digit.
+     */
+    public static int hexValue(char c) {
+        return c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+    }
+
     /**
      * Converts byte data to a Base64-encoded string.
      *
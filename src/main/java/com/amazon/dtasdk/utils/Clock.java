@@ -23,4 +23,17 @@ public class Clock {
     public Date now() {
         return new Date();
     }
+
+    /**
+     * Returns the time of {@link #now()} in milliseconds since the epoch. Subclasses provide the time by overriding
+     * {@link #now()}, only the system clock reads the time without allocating a {@link Date}.
+     *
+     * @return the current time in milliseconds since the epoch
+     */
+    public final long currentTimeMillis() {
+        if (getClass() == Clock.class) {
+            return System.currentTimeMillis();
+        }
+        return now().getTime();
+    }
 }
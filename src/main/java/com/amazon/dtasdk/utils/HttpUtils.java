@@ -14,33 +14,38 @@
  */
 package com.amazon.dtasdk.utils;
 
-import java.io.UnsupportedEncodingException;
 import java.net.URI;
-import java.net.URLEncoder;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class HttpUtils {
-    private static final String DEFAULT_ENCODING = "UTF-8";
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
     /**
-     * Regex which matches any of the sequences that we need to fix up after URLEncoder.encode().
+     * The ASCII characters that are left as is when encoding, the RFC 3986 unreserved characters. '/' is also left as
+     * is when encoding a path.
      */
-    private static final Pattern ENCODED_CHARACTERS_PATTERN;
+    private static final boolean[] UNRESERVED_CHARACTERS = new boolean[128];
     static {
-        StringBuilder pattern = new StringBuilder();
-
-        pattern.append(Pattern.quote("+")).append("|").append(Pattern.quote("*")).append("|")
-                .append(Pattern.quote("%7E")).append("|").append(Pattern.quote("%2F"));
-
-        ENCODED_CHARACTERS_PATTERN = Pattern.compile(pattern.toString());
+        for (char c = 'a'; c <= 'z'; ++c) {
+            UNRESERVED_CHARACTERS[c] = true;
+            UNRESERVED_CHARACTERS[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; ++c) {
+            UNRESERVED_CHARACTERS[c] = true;
+        }
+        UNRESERVED_CHARACTERS['-'] = true;
+        UNRESERVED_CHARACTERS['.'] = true;
+        UNRESERVED_CHARACTERS['_'] = true;
+        UNRESERVED_CHARACTERS['~'] = true;
     }
 
     /**
-     * Encode a string for use in the path of a URL; uses URLEncoder.encode, (which encodes a string for use in the
-     * query portion of a URL), then applies some postfilters to fix things up per the RFC. Can optionally handle
+     * Encode a string for use in the path of a URL, per RFC 3986: every character but the unreserved ones is percent
+     * encoded as UTF-8, so a space becomes %20 and '*' becomes %2A. This gives the same result as URLEncoder.encode
+     * (which encodes a string for use in the query portion of a URL) fixed up per the RFC. Can optionally handle
      * strings which are meant to encode a path (ie include '/'es which should NOT be escaped).
      * 
+     * The value is returned as is when it has nothing to encode.
+     * 
      * @param value
      *            the value to encode
      * @param path
@@ -52,34 +57,53 @@ public class HttpUtils {
             return "";
         }
 
-        try {
-            String encoded = URLEncoder.encode(value, DEFAULT_ENCODING);
-
-            Matcher matcher = ENCODED_CHARACTERS_PATTERN.matcher(encoded);
-            StringBuffer buffer = new StringBuffer(encoded.length());
-
-            while (matcher.find()) {
-                String replacement = matcher.group(0);
-
-                if ("+".equals(replacement)) {
-                    replacement = "%20";
-                } else if ("*".equals(replacement)) {
-                    replacement = "%2A";
-                } else if ("%7E".equals(replacement)) {
-                    replacement = "~";
-                } else if (path && "%2F".equals(replacement)) {
-                    replacement = "/";
-                }
+        int length = value.length();
+        int start = 0;
+        while (start < length && isUnreserved(value.charAt(start), path)) {
+            ++start;
+        }
+        if (start == length) {
+            return value;
+        }
 
-                matcher.appendReplacement(buffer, replacement);
+        StringBuilder encoded = new StringBuilder(length + 16);
+        encoded.append(value, 0, start);
+
+        for (int i = start; i < length; ++i) {
+            char c = value.charAt(i);
+            if (isUnreserved(c, path)) {
+                encoded.append(c);
+            } else if (c < 0x80) {
+                appendEscaped(encoded, c);
+            } else if (c < 0x800) {
+                appendEscaped(encoded, 0xc0 | (c >> 6));
+                appendEscaped(encoded, 0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendEscaped(encoded, 0xf0 | (codePoint >> 18));
+                appendEscaped(encoded, 0x80 | ((codePoint >> 12) & 0x3f));
+                appendEscaped(encoded, 0x80 | ((codePoint >> 6) & 0x3f));
+                appendEscaped(encoded, 0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Same replacement the UTF-8 encoder uses for malformed input
+                appendEscaped(encoded, '?');
+            } else {
+                appendEscaped(encoded, 0xe0 | (c >> 12));
+                appendEscaped(encoded, 0x80 | ((c >> 6) & 0x3f));
+                appendEscaped(encoded, 0x80 | (c & 0x3f));
             }
+        }
 
-            matcher.appendTail(buffer);
-            return buffer.toString();
+        return encoded.toString();
+    }
 
-        } catch (UnsupportedEncodingException ex) {
-            throw new RuntimeException(ex);
-        }
+    private static boolean isUnreserved(char c, boolean path) {
+        return c < 0x80 && (UNRESERVED_CHARACTERS[c] || (path && c == '/'));
+    }
+
+    private static void appendEscaped(StringBuilder builder, int b) {
+        builder.append('%').append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
     }
 
     /**
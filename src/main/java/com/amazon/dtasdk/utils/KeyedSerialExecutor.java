@@ -0,0 +1,227 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs the tasks of the same key one after the other, in the order they are submitted, while tasks of different keys
+ * run in parallel.
+ *
+ * Each key has its own queue, a chain of futures where a task starts when the one before it with the same key
+ * completes, so a task never waits for the tasks of other keys. The queues are kept in a fixed number of stripes the
+ * keys are hashed into, so there is no lock shared by all the keys, and a key is forgotten once its last task is done.
+ *
+ * Synchronous callers run their task on their own thread, after waiting for their turn for a bounded time, after
+ * which they fail with an {@link IllegalStateException} without running their task. They never run the tasks of other
+ * callers, so a thread waiting behind an asynchronous task is released when the stage of that task completes or the
+ * timeout elapses, whichever comes first.
+ *
+ * Asynchronous callers get a stage completed once their task ran, and are expected to bound it with their own
+ * timeout. Their task runs on the calling thread if its turn has already come, otherwise it is handed to an executor
+ * once the task before it completes, rather than run on the thread that completed it. A task must not wait for
+ * another task of the same executor.
+ */
+public class KeyedSerialExecutor {
+    public static final int DEFAULT_STRIPES = 256;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
+    /** The partitions of the keys, each one holding the tails of its keys */
+    private final Stripe[] stripes;
+    private final long timeoutMillis;
+
+    public KeyedSerialExecutor() {
+        this(DEFAULT_STRIPES, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param stripes
+     *            the number of partitions the keys are hashed into
+     * @param timeoutMillis
+     *            how long a synchronous caller waits for its turn, in milliseconds
+     */
+    public KeyedSerialExecutor(int stripes, long timeoutMillis) {
+        if (stripes <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("The number of stripes and the timeout must be positive");
+        }
+        this.stripes = new Stripe[stripes];
+        this.timeoutMillis = timeoutMillis;
+        for (int i = 0; i < stripes; ++i) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Runs a task on the calling thread once the tasks submitted before it with the same key are done.
+     *
+     * @param key
+     *            the key of the task
+     * @param task
+     *            the task
+     * @return the result of the task
+     * @throws IllegalStateException
+     *             if the tasks submitted before it do not complete within the timeout
+     */
+    public <V> V execute(String key, Supplier<? extends V> task) {
+        CompletableFuture<Void> done = new CompletableFuture<Void>();
+        CompletableFuture<Void> previous = enqueue(key, done);
+
+        try {
+            previous.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            skip(key, previous, done);
+            throw new IllegalStateException(String.format("Timed out waiting for the tasks queued for %s", key), e);
+        } catch (InterruptedException e) {
+            skip(key, previous, done);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(String.format("Interrupted waiting for the tasks queued for %s", key), e);
+        } catch (ExecutionException e) {
+            skip(key, previous, done);
+            throw new IllegalStateException(e);
+        }
+
+        try {
+            return task.get();
+        } finally {
+            release(key, done);
+        }
+    }
+
+    /**
+     * Starts a task once the tasks submitted before it with the same key are done, on the default asynchronous
+     * executor of {@link CompletableFuture} if it has to wait. The task is done, and the next one starts, when the
+     * stage it returns completes.
+     *
+     * @param key
+     *            the key of the task
+     * @param task
+     *            the task, which returns a stage of its result
+     * @return a stage completed with the result of the task
+     */
+    public <V> CompletionStage<V> executeAsync(String key, Supplier<? extends CompletionStage<? extends V>> task) {
+        return submit(key, task, null);
+    }
+
+    /**
+     * Starts a task once the tasks submitted before it with the same key are done, on the given executor if it has to
+     * wait. The task is done, and the next one starts, when the stage it returns completes.
+     *
+     * @param key
+     *            the key of the task
+     * @param task
+     *            the task, which returns a stage of its result
+     * @param executor
+     *            the executor the task runs on once the tasks before it are done
+     * @return a stage completed with the result of the task
+     */
+    public <V> CompletionStage<V> executeAsync(String key, Supplier<? extends CompletionStage<? extends V>> task,
+            Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("The executor must not be null");
+        }
+        return submit(key, task, executor);
+    }
+
+    private <V> CompletionStage<V> submit(final String key, final Supplier<? extends CompletionStage<? extends V>> task,
+            Executor executor) {
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+        CompletableFuture<Void> previous = enqueue(key, done);
+
+        Function<Void, CompletionStage<V>> start = new Function<Void, CompletionStage<V>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public CompletionStage<V> apply(Void ignored) {
+                return (CompletionStage<V>) task.get();
+            }
+        };
+
+        // Only a task whose turn has already come runs on the calling thread
+        CompletableFuture<V> result;
+        if (previous.isDone()) {
+            result = previous.thenCompose(start);
+        } else if (executor == null) {
+            result = previous.thenComposeAsync(start);
+        } else {
+            result = previous.thenComposeAsync(start, executor);
+        }
+        result.whenComplete(new BiConsumer<V, Throwable>() {
+            @Override
+            public void accept(V value, Throwable e) {
+                release(key, done);
+            }
+        });
+        // A copy, so the callers cannot complete the task and start the next one early
+        return result.thenApply(Function.<V> identity());
+    }
+
+    /**
+     * Makes a task the last one of its key.
+     *
+     * @return the completion of the task before it, which only ever completes normally
+     */
+    private CompletableFuture<Void> enqueue(String key, CompletableFuture<Void> done) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            CompletableFuture<Void> previous = stripe.tails.put(key, done);
+            return previous == null ? COMPLETED : previous;
+        }
+    }
+
+    /**
+     * Ends the turn of a task, and forgets its key if no task was submitted with it since.
+     */
+    private void release(String key, CompletableFuture<Void> done) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.tails.remove(key, done);
+        }
+        done.complete(null);
+    }
+
+    /**
+     * Gives up the turn of a task, the tasks queued after it still wait for the ones before it.
+     */
+    private void skip(final String key, CompletableFuture<Void> previous, final CompletableFuture<Void> done) {
+        previous.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void value, Throwable e) {
+                release(key, done);
+            }
+        });
+    }
+
+    private Stripe stripe(String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return stripes[(hash & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    private static final class Stripe {
+        /** The completion of the last task submitted with each key, until it completes */
+        private final Map<String, CompletableFuture<Void>> tails = new HashMap<String, CompletableFuture<Void>>();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Remembers the results of recent calls for a while, so a call retried with the same key gets the same result without
+ * being processed again.
+ *
+ * The number of results remembered is bounded. Once it is full and none of the results has expired, new results are
+ * not remembered until some expire, so their retries are processed again as they would be without the cache.
+ *
+ * All the results are remembered for the same time, so they expire in the order they were remembered. They are kept in
+ * that order too, and each call to {@link #put(String, Object)} drops the expired ones from the oldest, which takes
+ * constant time on average instead of scanning the whole cache. A result replacing one of the same key that has not
+ * expired yet takes its place and its expiration, so the order only ever holds one live entry per key.
+ *
+ * @param <V>
+ *            the type of the results
+ */
+public class ReplayCache<V> {
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_TTL_MILLIS = 60 * 60 * 1000;
+
+    private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<String, Entry<V>>();
+    /** The entries in the order they were put, which is also the order they expire in */
+    private final ConcurrentLinkedQueue<Entry<V>> insertionOrder = new ConcurrentLinkedQueue<Entry<V>>();
+    /** Held by the thread dropping the expired entries, the others do not wait for it */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Clock clock;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    public ReplayCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param maxEntries
+     *            the maximum number of results remembered at the same time
+     * @param ttlMillis
+     *            how long a result is remembered, in milliseconds
+     */
+    public ReplayCache(int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, new Clock());
+    }
+
+    ReplayCache(int maxEntries, long ttlMillis, Clock clock) {
+        if (maxEntries <= 0 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("The maximum number of entries and the time to live must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Gets the result remembered for a key.
+     *
+     * @param key
+     *            the key of the call
+     * @return the result, or null if there is none or it expired
+     */
+    public V get(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            if (entry.expiration > clock.currentTimeMillis()) {
+                hitCount.increment();
+                return entry.value;
+            }
+            entries.remove(key, entry);
+        }
+
+        missCount.increment();
+        return null;
+    }
+
+    /**
+     * Remembers the result of a call, replacing the one of the same key. A replaced result that has not expired yet
+     * keeps its expiration.
+     *
+     * @param key
+     *            the key of the call
+     * @param value
+     *            the result of the call
+     * @return true if the result is remembered, false if the cache is full
+     */
+    public boolean put(String key, V value) {
+        long now = clock.currentTimeMillis();
+        removeExpired(now);
+        if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            return false;
+        }
+
+        Entry<V> entry = new Entry<V>(key, value, now + ttlMillis);
+        while (true) {
+            Entry<V> existing = entries.putIfAbsent(key, entry);
+            if (existing == null) {
+                insertionOrder.offer(entry);
+                return true;
+            }
+            if (existing.expiration > now) {
+                // Already in the insertion order, a second entry of the key would only be dropped once it expires
+                existing.value = value;
+                return true;
+            }
+            if (entries.replace(key, existing, entry)) {
+                insertionOrder.offer(entry);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the number of calls to {@link #get(String)} that found a result
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return the number of calls to {@link #get(String)} that did not find a result
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        evictionLock.lock();
+        try {
+            insertionOrder.clear();
+            entries.clear();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the oldest entries while they are expired, or were already replaced or removed. Every entry is dropped
+     * from the insertion order once, so this takes constant time on average.
+     */
+    private void removeExpired(long now) {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            for (Entry<V> oldest = insertionOrder.peek(); oldest != null; oldest = insertionOrder.peek()) {
+                boolean current = entries.get(oldest.key) == oldest;
+                if (current && oldest.expiration > now) {
+                    break;
+                }
+                insertionOrder.poll();
+                if (current) {
+                    entries.remove(oldest.key, oldest);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Entry<V> {
+        private final String key;
+        private volatile V value;
+        private final long expiration;
+
+        private Entry(String key, V value, long expiration) {
+            this.key = key;
+            this.value = value;
+            this.expiration = expiration;
+        }
+    }
+}
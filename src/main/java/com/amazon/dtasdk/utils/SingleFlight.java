@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs at most one call per key at a time. A call made while another one with the same key is in flight does not run,
+ * it waits for the call in flight and gets its result or its exception instead.
+ *
+ * Synchronous callers wait for the call in flight for a bounded time, after which they fail with an
+ * {@link IllegalStateException} while the call keeps running. Asynchronous callers get a stage completed with the
+ * result of the call in flight, and are expected to bound it with their own timeout.
+ *
+ * @param <V>
+ *            the type of the results
+ */
+public class SingleFlight<V> {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final ConcurrentHashMap<String, CompletableFuture<V>> calls =
+            new ConcurrentHashMap<String, CompletableFuture<V>>();
+    private final long timeoutMillis;
+
+    private final LongAdder sharedCount = new LongAdder();
+
+    public SingleFlight() {
+        this(DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param timeoutMillis
+     *            how long a synchronous caller waits for the call in flight, in milliseconds
+     */
+    public SingleFlight(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("The timeout must be positive");
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Runs a call unless one with the same key is in flight, in which case its result is returned instead.
+     *
+     * @param key
+     *            the key of the call
+     * @param call
+     *            the call
+     * @return the result of the call, or of the call in flight
+     * @throws IllegalStateException
+     *             if the call in flight does not complete within the timeout
+     */
+    public V execute(String key, Supplier<? extends V> call) {
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        CompletableFuture<V> inFlight = calls.putIfAbsent(key, future);
+        if (inFlight != null) {
+            sharedCount.increment();
+            return await(key, inFlight);
+        }
+
+        try {
+            V result = call.get();
+            future.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } catch (Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    /**
+     * Starts a call unless one with the same key is in flight, in which case a stage of its result is returned
+     * instead. The call is in flight until the stage it returns completes.
+     *
+     * @param key
+     *            the key of the call
+     * @param call
+     *            the call, which returns a stage of its result
+     * @return a stage completed with the result of the call, or of the call in flight
+     */
+    public CompletionStage<V> executeAsync(final String key, Supplier<? extends CompletionStage<? extends V>> call) {
+        final CompletableFuture<V> future = new CompletableFuture<V>();
+        CompletableFuture<V> inFlight = calls.putIfAbsent(key, future);
+        if (inFlight != null) {
+            sharedCount.increment();
+            // A copy, so the callers cannot complete the shared future
+            return inFlight.thenApply(Function.<V> identity());
+        }
+
+        CompletionStage<? extends V> stage;
+        try {
+            stage = call.get();
+        } catch (RuntimeException e) {
+            calls.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+
+        stage.whenComplete(new BiConsumer<V, Throwable>() {
+            @Override
+            public void accept(V result, Throwable e) {
+                calls.remove(key, future);
+                if (e != null) {
+                    future.completeExceptionally(e);
+                } else {
+                    future.complete(result);
+                }
+            }
+        });
+        return future.thenApply(Function.<V> identity());
+    }
+
+    /**
+     * @return the number of calls that got the result of a call in flight instead of running
+     */
+    public long getSharedCount() {
+        return sharedCount.sum();
+    }
+
+    /**
+     * @return the number of calls in flight
+     */
+    public int size() {
+        return calls.size();
+    }
+
+    private V await(String key, CompletableFuture<V> inFlight) {
+        try {
+            return inFlight.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(String.format("Timed out waiting for the call in flight for %s", key), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(String.format("Interrupted waiting for the call in flight for %s", key), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(String.format("The call in flight for %s failed", key), cause);
+        }
+    }
+}
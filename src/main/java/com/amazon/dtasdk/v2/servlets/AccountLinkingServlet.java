@@ -17,8 +17,13 @@ package com.amazon.dtasdk.v2.servlets;
 import com.amazon.dtasdk.v2.serialization.messages.GetUserIdSerializableRequest;
 import com.amazon.dtasdk.v2.serialization.messages.GetUserIdSerializableResponse;
 import com.amazon.dtasdk.base.InstantAccessOperationValue;
+import com.amazon.dtasdk.base.InstantAccessRequest;
 import com.amazon.dtasdk.base.InstantAccessResponse;
 import com.amazon.dtasdk.serializer.SerializationException;
+import com.amazon.dtasdk.signature.Request;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * <p>
@@ -38,6 +43,12 @@ import com.amazon.dtasdk.serializer.SerializationException;
  */
 public abstract class AccountLinkingServlet extends InstantAccessServlet {
 
+    /** Set when a subclass overrides processOperation, which then processes the requests from their body */
+    private final boolean operationOverridden = overrides(AccountLinkingServlet.class, "processOperation",
+            InstantAccessOperationValue.class, String.class);
+    private final boolean operationAsyncOverridden = overrides(AccountLinkingServlet.class, "processOperationAsync",
+            InstantAccessOperationValue.class, String.class);
+
     /**
      * Process the request and returns the user id
      *
@@ -48,6 +59,19 @@ public abstract class AccountLinkingServlet extends InstantAccessServlet {
      */
     public abstract GetUserIdSerializableResponse getUserId(GetUserIdSerializableRequest request);
 
+    /**
+     * Process the request and returns the user id without blocking the calling thread, in asynchronous mode. By default
+     * it returns the result of {@link #getUserId(GetUserIdSerializableRequest)} as a completed stage.
+     *
+     * @param request
+     *            the request relative to the get user id operation
+     *
+     * @return a stage completed with a GetUserIdSerializableResponse object
+     */
+    public CompletionStage<GetUserIdSerializableResponse> getUserIdAsync(GetUserIdSerializableRequest request) {
+        return CompletableFuture.completedFuture(getUserId(request));
+    }
+
     @Override
     public InstantAccessResponse<?> processOperation(InstantAccessOperationValue operation, String requestBody)
             throws SerializationException {
@@ -66,4 +90,62 @@ public abstract class AccountLinkingServlet extends InstantAccessServlet {
 
         return iaResponse;
     }
+
+    @Override
+    public CompletionStage<? extends InstantAccessResponse<?>> processOperationAsync(
+            InstantAccessOperationValue operation, String requestBody) throws SerializationException {
+
+        // process the request according to the operation
+        switch (operation) {
+            case GETUSERID:
+                return getUserIdAsync(serializer.decode(requestBody, GetUserIdSerializableRequest.class));
+            default:
+                throw new IllegalArgumentException(String.format("Operation[%s] not supported by %s", operation.name(),
+                        this.getClass().getName()));
+        }
+    }
+
+    @Override
+    protected Class<? extends InstantAccessRequest> getRequestClass(InstantAccessOperationValue operation) {
+        switch (operation) {
+            case GETUSERID:
+                return GetUserIdSerializableRequest.class;
+            default:
+                return InstantAccessRequest.class;
+        }
+    }
+
+    @Override
+    protected InstantAccessResponse<?> processRequest(InstantAccessRequest iaRequest, Request request)
+            throws SerializationException {
+        if (operationOverridden) {
+            return super.processRequest(iaRequest, request);
+        }
+        // the request was decoded into the class of its operation by getRequestClass
+        switch (iaRequest.getOperation()) {
+            case GETUSERID:
+                return getUserId((GetUserIdSerializableRequest) iaRequest);
+            default:
+                throw new IllegalArgumentException(String.format("Operation[%s] not supported by %s",
+                        iaRequest.getOperation().name(), this.getClass().getName()));
+        }
+    }
+
+    @Override
+    protected CompletionStage<? extends InstantAccessResponse<?>> processRequestAsync(InstantAccessRequest iaRequest,
+            Request request) throws SerializationException {
+        if (operationAsyncOverridden) {
+            return super.processRequestAsync(iaRequest, request);
+        }
+        if (operationOverridden) {
+            return CompletableFuture.completedFuture(super.processRequest(iaRequest, request));
+        }
+        switch (iaRequest.getOperation()) {
+            case GETUSERID:
+                return getUserIdAsync((GetUserIdSerializableRequest) iaRequest);
+            default:
+                throw new IllegalArgumentException(String.format("Operation[%s] not supported by %s",
+                        iaRequest.getOperation().name(), this.getClass().getName()));
+        }
+    }
 }
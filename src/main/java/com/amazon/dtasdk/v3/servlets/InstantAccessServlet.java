@@ -21,16 +21,32 @@ import com.amazon.dtasdk.serializer.JacksonSerializer;
 import com.amazon.dtasdk.serializer.SerializationException;
 import com.amazon.dtasdk.signature.CredentialStore;
 import com.amazon.dtasdk.signature.Request;
+import com.amazon.dtasdk.signature.RequestBodyException;
+import com.amazon.dtasdk.signature.RequestBodyReader;
 import com.amazon.dtasdk.signature.Signer;
 import com.amazon.dtasdk.signature.SigningException;
+import com.amazon.dtasdk.signature.SigningKeyScheduler;
+import com.amazon.dtasdk.signature.VerificationResult;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * <p>
@@ -38,15 +54,108 @@ import java.nio.charset.Charset;
  * implement the Instant Access API. This class should not be used, use the aforementioned classes instead.
  * </p>
  *
+ * <p>
+ * Requests are processed on the container thread unless {@link #getAsyncExecutor()} returns an executor. In that
+ * asynchronous mode the body is read without blocking, see {@link RequestBodyReader}, then the request is verified
+ * and processed on the executor, and completed by the {@link CompletionStage} returned by
+ * {@link #processOperationAsync(InstantAccessOperationValue, String)}, so neither slow clients nor handlers doing I/O
+ * block container threads. The servlet must then be declared with async-supported set to true.
+ * </p>
+ *
  */
 public abstract class InstantAccessServlet extends HttpServlet {
     private static final Log log = LogFactory.getLog(InstantAccessServlet.class);
-    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final String CONTENT_TYPE = "application/json";
+
+    /** How long an asynchronous request can take before it fails, unless {@link #getAsyncTimeout()} is overridden */
+    public static final long DEFAULT_ASYNC_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static final String OPERATION_FIELD = "operation";
 
     private final Signer signer = new Signer();
 
+    /** Derives the signing keys of the next day before midnight, from {@link #init()} to {@link #destroy()} */
+    private SigningKeyScheduler signingKeyScheduler;
+
     protected final JacksonSerializer serializer = new JacksonSerializer();
 
+    /** Chooses the class a request is decoded into from its operation */
+    private final Function<String, Class<? extends InstantAccessRequest>> requestClasses =
+            new Function<String, Class<? extends InstantAccessRequest>>() {
+                @Override
+                public Class<? extends InstantAccessRequest> apply(String operation) {
+                    if (operation == null) {
+                        return InstantAccessRequest.class;
+                    }
+                    return getRequestClass(InstantAccessOperationValue.fromJson(operation));
+                }
+            };
+
+    /**
+     * Returns the signer verifying the requests of this servlet. Its
+     * {@link Signer#getVerificationCount(VerificationResult)} tells how many requests passed or failed verification,
+     * and why.
+     *
+     * @return the signer of this servlet
+     */
+    protected Signer getSigner() {
+        return signer;
+    }
+
+    /**
+     * Starts deriving the signing keys of the credentials of {@link #getCredentialStore()} ahead of every UTC day, if
+     * a subclass enables it with a positive {@link #getSigningKeyLead()}. Otherwise the credential store is not used
+     * before the first request.
+     */
+    @Override
+    public void init() throws ServletException {
+        super.init();
+
+        long leadMillis = getSigningKeyLead();
+        if (leadMillis <= 0) {
+            return;
+        }
+        CredentialStore store = getCredentialStore();
+        if (store == null) {
+            return;
+        }
+
+        SigningKeyScheduler scheduler = new SigningKeyScheduler(getSigner(), store, leadMillis);
+        try {
+            scheduler.start();
+            signingKeyScheduler = scheduler;
+        } catch (SigningException e) {
+            scheduler.close();
+            log.error("Unable to derive the v3 signing keys, they will be derived on the first requests.", e);
+        } catch (RuntimeException e) {
+            scheduler.close();
+            log.error("Unable to derive the v3 signing keys, they will be derived on the first requests.", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (signingKeyScheduler != null) {
+            signingKeyScheduler.close();
+            signingKeyScheduler = null;
+        }
+        super.destroy();
+    }
+
+    /**
+     * Returns how long before midnight UTC the signing keys of the next day are derived, see
+     * {@link SigningKeyScheduler}. By default it returns 0 and the keys are derived on the first requests of every
+     * day. Override this method to return a positive lead time, such as
+     * {@link SigningKeyScheduler#DEFAULT_LEAD_MILLIS}, only if the credential store is available when the servlet is
+     * initialized, since a daemon thread then derives the keys from its credentials.
+     *
+     * @return the lead time in milliseconds, at most {@link Signer#TIME_TOLERANCE}, or 0 to derive the keys on the
+     *         first requests of every day
+     */
+    protected long getSigningKeyLead() {
+        return 0;
+    }
+
     /**
      * Returns the credential store
      *
@@ -69,36 +178,307 @@ public abstract class InstantAccessServlet extends HttpServlet {
     public abstract InstantAccessResponse<?> processOperation(InstantAccessOperationValue operation, String requestBody)
             throws SerializationException;
 
+    /**
+     * Processes the request based on the operation, without blocking the calling thread. This is only called in
+     * asynchronous mode, see {@link #getAsyncExecutor()}. By default it calls
+     * {@link #processOperation(InstantAccessOperationValue, String)} and returns its result as a completed stage.
+     *
+     * @param operation
+     *            The operation being called
+     * @param requestBody
+     *            The content of the message
+     * @return a stage completed with the result of the operation
+     *
+     * @throws SerializationException
+     * @throws IllegalArgumentException
+     */
+    public CompletionStage<? extends InstantAccessResponse<?>> processOperationAsync(
+            InstantAccessOperationValue operation, String requestBody) throws SerializationException {
+        return CompletableFuture.completedFuture(processOperation(operation, requestBody));
+    }
+
+    /**
+     * Returns the class the requests of an operation are decoded into, so the body is decoded once into the message
+     * handed to {@link #processRequest(InstantAccessRequest, Request)}. By default it returns
+     * {@link InstantAccessRequest}.
+     *
+     * @param operation
+     *            The operation being called
+     * @return the class of the requests of the operation
+     */
+    protected Class<? extends InstantAccessRequest> getRequestClass(InstantAccessOperationValue operation) {
+        return InstantAccessRequest.class;
+    }
+
+    /**
+     * Processes a request decoded into the class returned by {@link #getRequestClass(InstantAccessOperationValue)}.
+     * By default it calls {@link #processOperation(InstantAccessOperationValue, String)} with the body of the request.
+     * The servlets of the SDK process the decoded request directly, unless a subclass overrides processOperation.
+     *
+     * @param iaRequest
+     *            The decoded request
+     * @param request
+     *            The verified request, with its body
+     * @return a generic InstantAccessResponse<?> containing the result of the operation
+     *
+     * @throws SerializationException
+     * @throws IllegalArgumentException
+     */
+    protected InstantAccessResponse<?> processRequest(InstantAccessRequest iaRequest, Request request)
+            throws SerializationException {
+        return processOperation(iaRequest.getOperation(), request.getBody());
+    }
+
+    /**
+     * Processes a decoded request in asynchronous mode, see {@link #processRequest(InstantAccessRequest, Request)}.
+     * By default it calls {@link #processOperationAsync(InstantAccessOperationValue, String)} with the body of the
+     * request.
+     *
+     * @param iaRequest
+     *            The decoded request
+     * @param request
+     *            The verified request, with its body
+     * @return a stage completed with the result of the operation
+     *
+     * @throws SerializationException
+     * @throws IllegalArgumentException
+     */
+    protected CompletionStage<? extends InstantAccessResponse<?>> processRequestAsync(InstantAccessRequest iaRequest,
+            Request request) throws SerializationException {
+        return processOperationAsync(iaRequest.getOperation(), request.getBody());
+    }
+
+    /**
+     * Returns the executor requests are verified and processed on in asynchronous mode. By default it returns null,
+     * and requests are processed on the container thread.
+     *
+     * @return the executor of the asynchronous mode, or null to process requests synchronously
+     */
+    protected Executor getAsyncExecutor() {
+        return null;
+    }
+
+    /**
+     * @return how long an asynchronous request can take before it fails, in milliseconds
+     */
+    protected long getAsyncTimeout() {
+        return DEFAULT_ASYNC_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * @return the maximum size of the body of a request in asynchronous mode, in bytes
+     */
+    protected int getMaxBodySize() {
+        return RequestBodyReader.DEFAULT_MAX_BODY_SIZE;
+    }
+
+    /**
+     * @return how long the body of a request in asynchronous mode can take to arrive, in milliseconds
+     */
+    protected long getBodyReadTimeout() {
+        return RequestBodyReader.DEFAULT_TIMEOUT_MILLIS;
+    }
+
     @Override
     public void doPost(HttpServletRequest request, HttpServletResponse response) {
+        Executor executor = getAsyncExecutor();
+        if (executor != null) {
+            doPostAsync(request, response, executor);
+            return;
+        }
+
         try {
             Request req = new Request(request);
+            InstantAccessRequest iaRequest = verifyAndDecode(req);
 
-            if (!signer.verify(req, getCredentialStore())) {
-                throw new SigningException("Request validation failed.");
+            // process the request according to the operation
+            InstantAccessResponse<?> iaResponse = processRequest(iaRequest, req);
+
+            writeResponse(response, iaResponse);
+        } catch (Exception e) {
+            handleError(response, e);
+        }
+    }
+
+    private void doPostAsync(HttpServletRequest request, HttpServletResponse response, Executor executor) {
+        // Set by whichever of the processing, the timeout or an error completes the request first
+        AtomicBoolean completed = new AtomicBoolean();
+        AsyncContext asyncContext = null;
+
+        try {
+            asyncContext = request.startAsync();
+            readAsync(request, response, executor, asyncContext, completed);
+        } catch (Exception e) {
+            // The container may refuse asynchronous mode or the read listener, the request still gets a response
+            if (completed.compareAndSet(false, true)) {
+                handleError(response, e);
+                if (asyncContext != null) {
+                    asyncContext.complete();
+                }
             }
+        }
+    }
 
-            String requestBody = req.getBody();
+    private void readAsync(HttpServletRequest request, final HttpServletResponse response, final Executor executor,
+            final AsyncContext asyncContext, final AtomicBoolean completed) throws IOException {
+        asyncContext.setTimeout(getAsyncTimeout());
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                if (completed.compareAndSet(false, true)) {
+                    log.error("Timed out processing the v3 request.");
+                    response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    asyncContext.complete();
+                }
+            }
 
-            // deserialize the content to a InstantAccessRequest object so we can check which operation is going
-            // to be called
-            InstantAccessRequest iaRequest = serializer.decode(requestBody, InstantAccessRequest.class);
+            @Override
+            public void onError(AsyncEvent event) {
+                if (completed.compareAndSet(false, true)) {
+                    log.error("Unable to process the v3 request.", event.getThrowable());
+                    asyncContext.complete();
+                }
+            }
 
-            // process the request according to the operation
-            InstantAccessResponse<?> iaResponse = processOperation(iaRequest.getOperation(), requestBody);
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        CompletionStage<Request> body = RequestBodyReader.read(request, getMaxBodySize(), getBodyReadTimeout());
 
-            response.setStatus(HttpServletResponse.SC_OK);
-            response.getOutputStream().write(serializer.encode(iaResponse).getBytes(CHARSET));
-        } catch (IOException e) {
+        // Only verify the request once its whole body has arrived
+        body.whenComplete(new BiConsumer<Request, Throwable>() {
+            @Override
+            public void accept(final Request req, Throwable error) {
+                if (error != null) {
+                    if (completed.compareAndSet(false, true)) {
+                        complete(asyncContext, response, null, error);
+                    }
+                    return;
+                }
+
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            process(req, asyncContext, response, completed);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    if (completed.compareAndSet(false, true)) {
+                        log.error("Unable to schedule the v3 request.", e);
+                        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                        asyncContext.complete();
+                    }
+                }
+            }
+        });
+    }
+
+    private void process(Request req, final AsyncContext asyncContext, final HttpServletResponse response,
+            final AtomicBoolean completed) {
+        try {
+            InstantAccessRequest iaRequest = verifyAndDecode(req);
+
+            processRequestAsync(iaRequest, req).whenComplete(
+                    new BiConsumer<InstantAccessResponse<?>, Throwable>() {
+                        @Override
+                        public void accept(InstantAccessResponse<?> iaResponse, Throwable error) {
+                            if (completed.compareAndSet(false, true)) {
+                                complete(asyncContext, response, iaResponse, error);
+                            }
+                        }
+                    });
+        } catch (Exception e) {
+            if (completed.compareAndSet(false, true)) {
+                complete(asyncContext, response, null, e);
+            }
+        }
+    }
+
+    private void complete(AsyncContext asyncContext, HttpServletResponse response, InstantAccessResponse<?> iaResponse,
+            Throwable error) {
+        try {
+            if (error == null) {
+                writeResponse(response, iaResponse);
+            } else if (error instanceof CompletionException && error.getCause() != null) {
+                handleError(response, error.getCause());
+            } else {
+                handleError(response, error);
+            }
+        } catch (Exception e) {
+            handleError(response, e);
+        } finally {
+            asyncContext.complete();
+        }
+    }
+
+    private InstantAccessRequest verifyAndDecode(Request req) throws SigningException, SerializationException {
+        VerificationResult verification = getSigner().verifyRequest(req, getCredentialStore());
+        if (!verification.isValid()) {
+            throw new SigningException("Request validation failed: " + verification);
+        }
+
+        // deserialize the content straight into the request class of its operation
+        InstantAccessRequest iaRequest = serializer.decode(req.getBodyBytes(), OPERATION_FIELD, requestClasses);
+        if (iaRequest == null || iaRequest.getOperation() == null) {
+            throw new SerializationException("The request has no operation");
+        }
+        return iaRequest;
+    }
+
+    /**
+     * Returns whether the class of this servlet overrides a public method of one of the servlets of the SDK, so the
+     * SDK servlets still call the overridden method when they process the decoded request directly.
+     */
+    final boolean overrides(Class<?> servletClass, String name, Class<?>... parameterTypes) {
+        try {
+            return getClass().getMethod(name, parameterTypes).getDeclaringClass() != servletClass;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private void writeResponse(HttpServletResponse response, InstantAccessResponse<?> iaResponse)
+            throws IOException, SerializationException {
+        response.setStatus(HttpServletResponse.SC_OK);
+
+        // Single enum responses such as {"response":"OK"} are written from bytes serialized once
+        byte[] cached = serializer.encodeCached(iaResponse);
+        if (cached != null) {
+            response.setContentType(CONTENT_TYPE);
+            response.setContentLength(cached.length);
+            response.getOutputStream().write(cached);
+            return;
+        }
+
+        // Encoded into a buffer of the thread, so the length is known and the body is written in one call
+        ByteArrayOutputStream body = serializer.encodeToBuffer(iaResponse);
+        response.setContentType(CONTENT_TYPE);
+        response.setContentLength(body.size());
+        body.writeTo(response.getOutputStream());
+    }
+
+    private void handleError(HttpServletResponse response, Throwable e) {
+        if (e instanceof RequestBodyException) {
+            // The client sent too much or too slowly, a retry of the same request would fail the same way
+            log.error("Unable to read the v3 request body.", e);
+            response.setStatus(((RequestBodyException) e).getStatus());
+        } else if (e instanceof IOException) {
             log.error("Unable to read the v3 request.", e);
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-        } catch (SigningException e) {
+        } else if (e instanceof SigningException) {
             log.error("Unable to verify the v3 request against the credential store.", e);
             response.setStatus(HttpServletResponse.SC_FORBIDDEN);
-        } catch (SerializationException e) {
+        } else if (e instanceof SerializationException) {
             log.error("v3 Serialization error.", e);
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-        } catch (Exception e) {
+        } else {
             log.error("Unable to process the v3 request.", e);
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         }
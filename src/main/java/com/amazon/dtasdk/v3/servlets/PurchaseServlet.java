@@ -15,11 +15,28 @@
 package com.amazon.dtasdk.v3.servlets;
 
 import com.amazon.dtasdk.base.InstantAccessOperationValue;
+import com.amazon.dtasdk.base.InstantAccessRequest;
 import com.amazon.dtasdk.base.InstantAccessResponse;
+import com.amazon.dtasdk.base.SubscriptionRequest;
 import com.amazon.dtasdk.base.SubscriptionResponse;
 import com.amazon.dtasdk.serializer.SerializationException;
+import com.amazon.dtasdk.signature.Request;
+import com.amazon.dtasdk.utils.KeyedSerialExecutor;
+import com.amazon.dtasdk.utils.ReplayCache;
+import com.amazon.dtasdk.utils.SingleFlight;
+import com.amazon.dtasdk.v2.serialization.messages.FulfillPurchaseResponseValue;
+import com.amazon.dtasdk.v2.serialization.messages.RevokePurchaseResponseValue;
 import com.amazon.dtasdk.v3.serialization.messages.*;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 /**
  * <p>
  * This abstract servlet can be extended to implement the V3 Purchase/Subscription section of Instant Access API.
@@ -42,6 +59,13 @@ import com.amazon.dtasdk.v3.serialization.messages.*;
  * </p>
  */
 public abstract class PurchaseServlet extends InstantAccessServlet {
+    private static final Log log = LogFactory.getLog(PurchaseServlet.class);
+
+    /** Set when a subclass overrides processOperation, which then processes the requests from their body */
+    private final boolean operationOverridden = overrides(PurchaseServlet.class, "processOperation",
+            InstantAccessOperationValue.class, String.class);
+    private final boolean operationAsyncOverridden = overrides(PurchaseServlet.class, "processOperationAsync",
+            InstantAccessOperationValue.class, String.class);
 
     /**
      * Process the fulfill purchase request and return the response to whether or not the request succeeded.
@@ -96,39 +120,382 @@ public abstract class PurchaseServlet extends InstantAccessServlet {
      */
     public abstract SubscriptionResponse processSubscriptionUpdate(SubscriptionUpdateRequest request);
 
+    /**
+     * Process the fulfill purchase request without blocking the calling thread, in asynchronous mode. By default it
+     * returns the result of {@link #fulfillPurchase(FulfillPurchaseRequest)} as a completed stage.
+     *
+     * @param request the request relative to the fulfill purchase
+     * @return a stage completed with a FulfillPurchaseResponse object
+     */
+    public CompletionStage<FulfillPurchaseResponse> fulfillPurchaseAsync(FulfillPurchaseRequest request) {
+        return CompletableFuture.completedFuture(fulfillPurchase(request));
+    }
+
+    /**
+     * Process the revoke purchase request without blocking the calling thread, in asynchronous mode. By default it
+     * returns the result of {@link #revokePurchase(RevokePurchaseRequest)} as a completed stage.
+     *
+     * @param request the request relative to the revoke purchase
+     * @return a stage completed with a RevokePurchaseResponse object
+     */
+    public CompletionStage<RevokePurchaseResponse> revokePurchaseAsync(RevokePurchaseRequest request) {
+        return CompletableFuture.completedFuture(revokePurchase(request));
+    }
+
+    /**
+     * Process a subscription get without blocking the calling thread, in asynchronous mode. By default it returns the
+     * result of {@link #processSubscriptionGet(SubscriptionGetRequest)} as a completed stage.
+     *
+     * @param request the request object with information about the subscription
+     * @return a stage completed with a SubscriptionGetResponse object
+     */
+    public CompletionStage<SubscriptionGetResponse> processSubscriptionGetAsync(SubscriptionGetRequest request) {
+        return CompletableFuture.completedFuture(processSubscriptionGet(request));
+    }
+
+    /**
+     * Process a subscription activation without blocking the calling thread, in asynchronous mode. By default it
+     * returns the result of {@link #processSubscriptionActivate(SubscriptionActivateRequest)} as a completed stage.
+     *
+     * @param request the request object with information about the subscription
+     * @return a stage completed with a SubscriptionResponse object
+     */
+    public CompletionStage<SubscriptionResponse> processSubscriptionActivateAsync(SubscriptionActivateRequest request) {
+        return CompletableFuture.completedFuture(processSubscriptionActivate(request));
+    }
+
+    /**
+     * Process a subscription deactivation without blocking the calling thread, in asynchronous mode. By default it
+     * returns the result of {@link #processSubscriptionDeactivate(SubscriptionDeactivateRequest)} as a completed stage.
+     *
+     * @param request the request object with information about the subscription
+     * @return a stage completed with a SubscriptionResponse object
+     */
+    public CompletionStage<SubscriptionResponse> processSubscriptionDeactivateAsync(
+            SubscriptionDeactivateRequest request) {
+        return CompletableFuture.completedFuture(processSubscriptionDeactivate(request));
+    }
+
+    /**
+     * Process a subscription update without blocking the calling thread, in asynchronous mode. By default it returns
+     * the result of {@link #processSubscriptionUpdate(SubscriptionUpdateRequest)} as a completed stage.
+     *
+     * @param request the request object with information about the subscription
+     * @return a stage completed with a SubscriptionResponse object
+     */
+    public CompletionStage<SubscriptionResponse> processSubscriptionUpdateAsync(SubscriptionUpdateRequest request) {
+        return CompletableFuture.completedFuture(processSubscriptionUpdate(request));
+    }
+
+    /**
+     * Returns the cache of the Purchase and Revoke results, so the retries of these operations get the stored response
+     * without reaching {@link #fulfillPurchase(FulfillPurchaseRequest)} or
+     * {@link #revokePurchase(RevokePurchaseRequest)} again. Results are keyed by operation and purchase token, and only
+     * final results are stored: FAIL_OTHER responses are processed again when retried. Override this method to return
+     * the same cache for every call, by default there is no cache and every request is processed.
+     *
+     * @return the cache of the Purchase and Revoke results, or null to process every request
+     */
+    protected ReplayCache<InstantAccessResponse<?>> getReplayCache() {
+        return null;
+    }
+
+    /**
+     * Returns the calls in flight, so a request arriving while another one with the same operation and key is being
+     * processed waits for its response instead of being processed concurrently. The key is the purchase token of the
+     * Purchase and Revoke requests, and the subscription id of the subscription requests. Override this method to
+     * return the same instance for every call, by default every request is processed.
+     *
+     * @return the calls in flight, or null to process every request
+     */
+    protected SingleFlight<InstantAccessResponse<?>> getSingleFlight() {
+        return null;
+    }
+
+    /**
+     * Returns the executor that orders the requests of the same purchase or subscription, so a Revoke never runs
+     * before or during the Purchase of its purchase token, and the operations of a subscription id never interleave.
+     * Requests of different purchase tokens and subscription ids still run in parallel. Override this method to return
+     * the same executor for every call, by default requests run as soon as they arrive. In asynchronous mode, a
+     * request that has to wait for its turn then runs on {@link #getAsyncExecutor()}.
+     *
+     * @return the executor ordering the requests, or null to run every request as soon as it arrives
+     */
+    protected KeyedSerialExecutor getSerialExecutor() {
+        return null;
+    }
+
     @Override
     public InstantAccessResponse<?> processOperation(InstantAccessOperationValue operation, String requestBody)
             throws SerializationException {
+        return process(operation, decode(operation, requestBody));
+    }
+
+    @Override
+    public CompletionStage<? extends InstantAccessResponse<?>> processOperationAsync(
+            InstantAccessOperationValue operation, String requestBody) throws SerializationException {
+        return processAsync(operation, decode(operation, requestBody));
+    }
+
+    @Override
+    protected Class<? extends InstantAccessRequest> getRequestClass(InstantAccessOperationValue operation) {
+        switch (operation) {
+            case PURCHASE:
+                return FulfillPurchaseRequest.class;
+            case REVOKE:
+                return RevokePurchaseRequest.class;
+            case SUBSCRIPTIONGET:
+                return SubscriptionGetRequest.class;
+            case SUBSCRIPTIONACTIVATE:
+                return SubscriptionActivateRequest.class;
+            case SUBSCRIPTIONDEACTIVATE:
+                return SubscriptionDeactivateRequest.class;
+            case SUBSCRIPTIONUPDATE:
+                return SubscriptionUpdateRequest.class;
+            default:
+                return InstantAccessRequest.class;
+        }
+    }
+
+    @Override
+    protected InstantAccessResponse<?> processRequest(InstantAccessRequest iaRequest, Request request)
+            throws SerializationException {
+        if (operationOverridden) {
+            return super.processRequest(iaRequest, request);
+        }
+        // the request was decoded into the class of its operation by getRequestClass
+        return process(iaRequest.getOperation(), iaRequest);
+    }
+
+    @Override
+    protected CompletionStage<? extends InstantAccessResponse<?>> processRequestAsync(InstantAccessRequest iaRequest,
+            Request request) throws SerializationException {
+        if (operationAsyncOverridden) {
+            return super.processRequestAsync(iaRequest, request);
+        }
+        if (operationOverridden) {
+            return CompletableFuture.completedFuture(super.processRequest(iaRequest, request));
+        }
+        return processAsync(iaRequest.getOperation(), iaRequest);
+    }
+
+    private InstantAccessRequest decode(InstantAccessOperationValue operation, String requestBody)
+            throws SerializationException {
+        Class<? extends InstantAccessRequest> requestClass = getRequestClass(operation);
+        if (requestClass == InstantAccessRequest.class) {
+            throw unsupportedOperation(operation);
+        }
+        return serializer.decode(requestBody, requestClass);
+    }
+
+    /**
+     * Processes a request unless its response can be replayed, or a request with the same key is in flight. The
+     * request is processed after the ones of the same purchase or subscription that arrived before it.
+     */
+    private InstantAccessResponse<?> process(final InstantAccessOperationValue operation,
+            final InstantAccessRequest iaRequest) {
+        final String key = getKey(operation, iaRequest);
+        InstantAccessResponse<?> response = findReplay(operation, key);
+        if (response != null) {
+            return response;
+        }
+
+        SingleFlight<InstantAccessResponse<?>> singleFlight = getSingleFlight();
+        if (singleFlight == null || key == null) {
+            return dispatchInOrder(operation, iaRequest, key);
+        }
+        return singleFlight.execute(key, new Supplier<InstantAccessResponse<?>>() {
+            @Override
+            public InstantAccessResponse<?> get() {
+                return dispatchInOrder(operation, iaRequest, key);
+            }
+        });
+    }
+
+    private CompletionStage<? extends InstantAccessResponse<?>> processAsync(
+            final InstantAccessOperationValue operation, final InstantAccessRequest iaRequest) {
+        final String key = getKey(operation, iaRequest);
+        InstantAccessResponse<?> response = findReplay(operation, key);
+        if (response != null) {
+            return CompletableFuture.completedFuture(response);
+        }
+
+        SingleFlight<InstantAccessResponse<?>> singleFlight = getSingleFlight();
+        if (singleFlight == null || key == null) {
+            return dispatchInOrderAsync(operation, iaRequest, key);
+        }
+        return singleFlight.executeAsync(key, new Supplier<CompletionStage<? extends InstantAccessResponse<?>>>() {
+            @Override
+            public CompletionStage<? extends InstantAccessResponse<?>> get() {
+                return dispatchInOrderAsync(operation, iaRequest, key);
+            }
+        });
+    }
+
+    private InstantAccessResponse<?> dispatchInOrder(final InstantAccessOperationValue operation,
+            final InstantAccessRequest iaRequest, final String key) {
+        KeyedSerialExecutor serialExecutor = getSerialExecutor();
+        String orderKey = getOrderKey(iaRequest);
+        if (serialExecutor == null || orderKey == null) {
+            return dispatchAndStore(operation, iaRequest, key);
+        }
+        return serialExecutor.execute(orderKey, new Supplier<InstantAccessResponse<?>>() {
+            @Override
+            public InstantAccessResponse<?> get() {
+                return dispatchAndStore(operation, iaRequest, key);
+            }
+        });
+    }
+
+    private CompletionStage<? extends InstantAccessResponse<?>> dispatchInOrderAsync(
+            final InstantAccessOperationValue operation, final InstantAccessRequest iaRequest, final String key) {
+        KeyedSerialExecutor serialExecutor = getSerialExecutor();
+        String orderKey = getOrderKey(iaRequest);
+        if (serialExecutor == null || orderKey == null) {
+            return dispatchAndStoreAsync(operation, iaRequest, key);
+        }
+        Supplier<CompletionStage<? extends InstantAccessResponse<?>>> task =
+                new Supplier<CompletionStage<? extends InstantAccessResponse<?>>>() {
+                    @Override
+                    public CompletionStage<? extends InstantAccessResponse<?>> get() {
+                        return dispatchAndStoreAsync(operation, iaRequest, key);
+                    }
+                };
+
+        // The request waiting for its turn runs on the executor of the servlet, not the thread of the one before it
+        Executor executor = getAsyncExecutor();
+        if (executor == null) {
+            return serialExecutor.executeAsync(orderKey, task);
+        }
+        return serialExecutor.executeAsync(orderKey, task, executor);
+    }
+
+    private InstantAccessResponse<?> dispatchAndStore(InstantAccessOperationValue operation,
+            InstantAccessRequest iaRequest, String key) {
+        InstantAccessResponse<?> response = dispatch(operation, iaRequest);
+        storeReplay(operation, key, response);
+        return response;
+    }
+
+    private CompletionStage<? extends InstantAccessResponse<?>> dispatchAndStoreAsync(
+            final InstantAccessOperationValue operation, InstantAccessRequest iaRequest, final String key) {
+        CompletionStage<? extends InstantAccessResponse<?>> stage = dispatchAsync(operation, iaRequest);
+        if (getReplayCache() == null || !isReplayable(operation)) {
+            return stage;
+        }
+        return stage.thenApply(new Function<InstantAccessResponse<?>, InstantAccessResponse<?>>() {
+            @Override
+            public InstantAccessResponse<?> apply(InstantAccessResponse<?> response) {
+                storeReplay(operation, key, response);
+                return response;
+            }
+        });
+    }
 
-        InstantAccessResponse<?> iaResponse;
+    private InstantAccessResponse<?> dispatch(InstantAccessOperationValue operation, InstantAccessRequest iaRequest) {
+        switch (operation) {
+            case PURCHASE:
+                return fulfillPurchase((FulfillPurchaseRequest) iaRequest);
+            case REVOKE:
+                return revokePurchase((RevokePurchaseRequest) iaRequest);
+            case SUBSCRIPTIONGET:
+                return processSubscriptionGet((SubscriptionGetRequest) iaRequest);
+            case SUBSCRIPTIONACTIVATE:
+                return processSubscriptionActivate((SubscriptionActivateRequest) iaRequest);
+            case SUBSCRIPTIONDEACTIVATE:
+                return processSubscriptionDeactivate((SubscriptionDeactivateRequest) iaRequest);
+            case SUBSCRIPTIONUPDATE:
+                return processSubscriptionUpdate((SubscriptionUpdateRequest) iaRequest);
+            default:
+                throw unsupportedOperation(operation);
+        }
+    }
 
-        // process the request according to the operation
+    private CompletionStage<? extends InstantAccessResponse<?>> dispatchAsync(InstantAccessOperationValue operation,
+            InstantAccessRequest iaRequest) {
         switch (operation) {
             case PURCHASE:
-                iaResponse = fulfillPurchase(serializer.decode(requestBody, FulfillPurchaseRequest.class));
-                break;
+                return fulfillPurchaseAsync((FulfillPurchaseRequest) iaRequest);
             case REVOKE:
-                iaResponse = revokePurchase(serializer.decode(requestBody, RevokePurchaseRequest.class));
-                break;
+                return revokePurchaseAsync((RevokePurchaseRequest) iaRequest);
             case SUBSCRIPTIONGET:
-                iaResponse = processSubscriptionGet(serializer.decode(requestBody, SubscriptionGetRequest.class));
-                break;
+                return processSubscriptionGetAsync((SubscriptionGetRequest) iaRequest);
             case SUBSCRIPTIONACTIVATE:
-                iaResponse = processSubscriptionActivate(serializer.decode(requestBody,
-                        SubscriptionActivateRequest.class));
-                break;
+                return processSubscriptionActivateAsync((SubscriptionActivateRequest) iaRequest);
             case SUBSCRIPTIONDEACTIVATE:
-                iaResponse = processSubscriptionDeactivate(serializer.decode(requestBody,
-                        SubscriptionDeactivateRequest.class));
-                break;
+                return processSubscriptionDeactivateAsync((SubscriptionDeactivateRequest) iaRequest);
             case SUBSCRIPTIONUPDATE:
-                iaResponse = processSubscriptionUpdate(serializer.decode(requestBody, SubscriptionUpdateRequest.class));
-                break;
+                return processSubscriptionUpdateAsync((SubscriptionUpdateRequest) iaRequest);
             default:
-                throw new IllegalArgumentException(String.format("Operation[%s] not supported by v3 %s", operation.name(),
-                        this.getClass().getName()));
+                throw unsupportedOperation(operation);
+        }
+    }
+
+    private InstantAccessResponse<?> findReplay(InstantAccessOperationValue operation, String key) {
+        ReplayCache<InstantAccessResponse<?>> replayCache = getReplayCache();
+        if (replayCache == null || key == null || !isReplayable(operation)) {
+            return null;
+        }
+
+        InstantAccessResponse<?> response = replayCache.get(key);
+        if (response != null && log.isDebugEnabled()) {
+            log.debug(String.format("Replaying the response of %s", key));
+        }
+        return response;
+    }
+
+    private void storeReplay(InstantAccessOperationValue operation, String key, InstantAccessResponse<?> response) {
+        ReplayCache<InstantAccessResponse<?>> replayCache = getReplayCache();
+        if (replayCache == null || key == null || !isReplayable(operation) || response == null
+                || response.getResponse() == null) {
+            return;
+        }
+
+        // FAIL_OTHER is not a final result, its retries must reach the handler again
+        Object value = response.getResponse();
+        if (value == FulfillPurchaseResponseValue.FAIL_OTHER || value == RevokePurchaseResponseValue.FAIL_OTHER) {
+            return;
+        }
+        replayCache.put(key, response);
+    }
+
+    private IllegalArgumentException unsupportedOperation(InstantAccessOperationValue operation) {
+        return new IllegalArgumentException(String.format("Operation[%s] not supported by v3 %s", operation.name(),
+                this.getClass().getName()));
+    }
+
+    private static boolean isReplayable(InstantAccessOperationValue operation) {
+        return operation == InstantAccessOperationValue.PURCHASE || operation == InstantAccessOperationValue.REVOKE;
+    }
+
+    /**
+     * @return the operation and the purchase token or subscription id of a request, or null if it has neither
+     */
+    private static String getKey(InstantAccessOperationValue operation, InstantAccessRequest iaRequest) {
+        String id = getId(iaRequest);
+        return id == null ? null : operation.name() + ':' + id;
+    }
+
+    /**
+     * @return the purchase token or subscription id of a request, shared by all the operations on it, or null if it
+     *         has neither
+     */
+    private static String getOrderKey(InstantAccessRequest iaRequest) {
+        String id = getId(iaRequest);
+        if (id == null) {
+            return null;
         }
+        return (iaRequest instanceof SubscriptionRequest ? "subscription:" : "purchase:") + id;
+    }
 
-        return iaResponse;
+    private static String getId(InstantAccessRequest iaRequest) {
+        if (iaRequest instanceof FulfillPurchaseRequest) {
+            return ((FulfillPurchaseRequest) iaRequest).getPurchaseToken();
+        } else if (iaRequest instanceof RevokePurchaseRequest) {
+            return ((RevokePurchaseRequest) iaRequest).getPurchaseToken();
+        } else if (iaRequest instanceof SubscriptionRequest) {
+            return ((SubscriptionRequest) iaRequest).getSubscriptionId();
+        }
+        return null;
     }
 }
@@ -30,14 +30,14 @@ public class AccountLinkingServletImpl extends AccountLinkingServlet {
 
     private static final Log log = LogFactory.getLog(AccountLinkingServletImpl.class);
 
+    /**
+     *  Add your public and private keys to the CredentialStore once, for example in init(). The store can be
+     *  reloaded while requests are being verified.
+     */
+    private final CredentialStore store = new CredentialStore();
+
     @Override
     public CredentialStore getCredentialStore() {
-        CredentialStore store = new CredentialStore();
-
-        /**
-         *  Add your public and private keys to the CredentialStore
-         */
-
         return store;
     }
 
@@ -40,14 +40,14 @@ import org.apache.commons.logging.LogFactory;
 public class PurchaseServletImpl extends PurchaseServlet {
     private static final Log log = LogFactory.getLog(PurchaseServletImpl.class);
 
+    /**
+     *  Add your public and private keys to the CredentialStore once, for example in init(). The store can be
+     *  reloaded while requests are being verified.
+     */
+    private final CredentialStore store = new CredentialStore();
+
     @Override
     public CredentialStore getCredentialStore() {
-        CredentialStore store = new CredentialStore();
-
-        /**
-         *  Add your public and private keys to the CredentialStore
-         */
-
         return store;
     }
 
@@ -14,14 +14,25 @@
  */
 package com.amazon.dtasdk.serializer;
 
+import com.amazon.dtasdk.base.InstantAccessOperationValue;
+import com.amazon.dtasdk.base.InstantAccessRequest;
+import com.amazon.dtasdk.base.SubscriptionResponseValue;
 import com.amazon.dtasdk.serializer.TestJson.Name;
+import com.amazon.dtasdk.v2.serialization.messages.FulfillPurchaseRequest;
+import com.amazon.dtasdk.v2.serialization.messages.FulfillPurchaseResponse;
+import com.amazon.dtasdk.v2.serialization.messages.FulfillPurchaseResponseValue;
+import com.amazon.dtasdk.v2.serialization.messages.RevokePurchaseRequest;
+import com.amazon.dtasdk.v3.serialization.messages.SubscriptionGetResponse;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import junit.framework.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Function;
 
 public class JacksonSerializerTest {
     private static final String jsonString = "{\"value\":\"theValue\","
@@ -29,6 +40,19 @@ public class JacksonSerializerTest {
 
     private static final JacksonSerializer serializer = new JacksonSerializer();
 
+    private static final Function<String, Class<? extends InstantAccessRequest>> REQUEST_CLASSES =
+            new Function<String, Class<? extends InstantAccessRequest>>() {
+                @Override
+                public Class<? extends InstantAccessRequest> apply(String operation) {
+                    if ("Purchase".equals(operation)) {
+                        return FulfillPurchaseRequest.class;
+                    } else if ("Revoke".equals(operation)) {
+                        return RevokePurchaseRequest.class;
+                    }
+                    return InstantAccessRequest.class;
+                }
+            };
+
     @Test
     public void testDecode() throws Exception {
         TestJson dtgObject = serializer.decode(jsonString, TestJson.class);
@@ -42,6 +66,52 @@ public class JacksonSerializerTest {
         Assert.assertEquals("theValue", testJson.getValue());
     }
 
+    @Test
+    public void testDecodeBytes() throws Exception {
+        TestJson testJson = serializer.decode(jsonString.getBytes("UTF-8"), TestJson.class);
+
+        Assert.assertEquals(getTestObject(), testJson);
+    }
+
+    @Test
+    public void testDecodeByType() throws Exception {
+        List<String> bodies = new LinkedList<String>();
+        bodies.add("{\"operation\":\"Purchase\",\"reason\":\"FULFILL\",\"productId\":\"P\",\"userId\":\"U\"}");
+        bodies.add("{\"reason\":\"FULFILL\",\"productId\":\"P\",\"userId\":\"U\",\"operation\":\"Purchase\"}");
+        bodies.add("{\"unknown\":{\"operation\":\"Revoke\",\"list\":[1,{}]},\"reason\":\"FULFILL\","
+                + "\"operation\":\"Purchase\",\"productId\":\"P\",\"userId\":\"U\"}");
+
+        for (String body : bodies) {
+            InstantAccessRequest request = serializer.decode(body.getBytes("UTF-8"), "operation", REQUEST_CLASSES);
+
+            // Same result as decoding the operation first and the body again into its class
+            Assert.assertEquals(body, serializer.decode(body, FulfillPurchaseRequest.class), request);
+            Assert.assertEquals(InstantAccessOperationValue.PURCHASE, request.getOperation());
+        }
+    }
+
+    @Test
+    public void testDecodeByTypeWithoutType() throws Exception {
+        for (String body : new String[] { "{}", "{\"reason\":\"FULFILL\"}", "{\"operation\":null}" }) {
+            InstantAccessRequest request = serializer.decode(body.getBytes("UTF-8"), "operation", REQUEST_CLASSES);
+
+            Assert.assertEquals(InstantAccessRequest.class, request.getClass());
+            Assert.assertNull(request.getOperation());
+        }
+    }
+
+    @Test
+    public void testDecodeByTypeInvalidJson() throws Exception {
+        for (String body : new String[] { "", "[]", "{\"operation\":\"Purchase\"", "{\"operation\":\"Unknown\"}" }) {
+            try {
+                serializer.decode(body.getBytes("UTF-8"), "operation", REQUEST_CLASSES);
+                Assert.fail(body);
+            } catch (SerializationException e) {
+                // expected
+            }
+        }
+    }
+
     @Test
     public void testEncode() throws Exception {
         String encodedJson = encodeObject(getTestObject());
@@ -53,6 +123,48 @@ public class JacksonSerializerTest {
         Assert.assertEquals(expected, actual);
     }
 
+    @Test
+    public void testEncodeToBuffer() throws Exception {
+        TestJson testJson = getTestObject();
+        testJson.setValue("caf\u00e9 \u20ac");
+
+        ByteArrayOutputStream buffer = serializer.encodeToBuffer(testJson);
+        Assert.assertTrue(Arrays.equals(encodeObject(testJson).getBytes("UTF-8"), buffer.toByteArray()));
+
+        // Characters outside the BMP may be escaped, but decode the same
+        testJson.setValue("\ud83d\ude00");
+        Assert.assertEquals(testJson, serializer.decode(serializer.encodeToBuffer(testJson).toByteArray(),
+                TestJson.class));
+
+        // The buffer of the thread is reused
+        Assert.assertSame(buffer, serializer.encodeToBuffer(getTestObject()));
+        Assert.assertEquals(encodeObject(getTestObject()), buffer.toString("UTF-8"));
+    }
+
+    @Test
+    public void testEncodeCached() throws Exception {
+        FulfillPurchaseResponse response = new FulfillPurchaseResponse();
+        response.setResponse(FulfillPurchaseResponseValue.OK);
+
+        byte[] cached = serializer.encodeCached(response);
+        Assert.assertEquals(serializer.encode(response), new String(cached, "UTF-8"));
+        Assert.assertSame(cached, serializer.encodeCached(response));
+
+        response.setResponse(FulfillPurchaseResponseValue.FAIL_USER_INVALID);
+        Assert.assertEquals(serializer.encode(response), new String(serializer.encodeCached(response), "UTF-8"));
+
+        // Responses with other values are not cached
+        SubscriptionGetResponse getResponse = new SubscriptionGetResponse();
+        getResponse.setResponse(SubscriptionResponseValue.OK);
+        Assert.assertEquals(serializer.encode(getResponse), new String(serializer.encodeCached(getResponse), "UTF-8"));
+        getResponse.setNumberOfUsedLicenses(2);
+        Assert.assertNull(serializer.encodeCached(getResponse));
+
+        Assert.assertNull(serializer.encodeCached(new FulfillPurchaseResponse()));
+        Assert.assertNull(serializer.encodeCached(getTestObject()));
+        Assert.assertNull(serializer.encodeCached("OK"));
+    }
+
     private TestJson getTestObject() throws Exception {
         TestJson testJson = new TestJson();
         Name name = new Name();
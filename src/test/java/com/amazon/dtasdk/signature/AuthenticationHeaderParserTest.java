@@ -17,6 +17,12 @@ package com.amazon.dtasdk.signature;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import org.junit.Test;
 
 public class AuthenticationHeaderParserTest {
@@ -69,4 +75,105 @@ public class AuthenticationHeaderParserTest {
         assertEquals("aaa;content-type;x-amz-date;zzz", result.getSignedHeaders());
         assertEquals("87729cb3475859a18b5d9cead0bba82f0f56a85c2a13bed3bc229c6c35e06628", result.getSignature());
     }
+
+    @Test
+    public void credentialKeyIdAndDate() {
+        AuthenticationHeader result = new AuthenticationHeaderParser().parse("DTA1-HMAC-SHA256 SignedHeaders=aaa, "
+                + "Credential=KEYID/20110909/extra, Signature=abc");
+
+        assertEquals("KEYID", result.getCredentialKeyId());
+        assertEquals("20110909", result.getCredentialDate());
+
+        result.setCredential("NOSEPARATOR");
+
+        assertEquals("NOSEPARATOR", result.getCredential());
+        assertNull(result.getCredentialKeyId());
+        assertNull(result.getCredentialDate());
+    }
+
+    @Test
+    public void settersOverrideParsedValues() {
+        AuthenticationHeader result = new AuthenticationHeaderParser().parse("DTA1-HMAC-SHA256 SignedHeaders=aaa, "
+                + "Credential=KEYID/20110909, Signature=abc");
+
+        result.setAlgorithm(null);
+        result.setSignature("def");
+
+        assertNull(result.getAlgorithm());
+        assertEquals("aaa", result.getSignedHeaders());
+        assertEquals("def", result.getSignature());
+    }
+
+    @Test
+    public void oversizedHeader() {
+        StringBuilder value = new StringBuilder("DTA1-HMAC-SHA256 SignedHeaders=aaa, Credential=KEYID/20110909, ");
+        value.append("Signature=");
+        while (value.length() <= AuthenticationHeaderParser.MAX_HEADER_LENGTH) {
+            value.append('a');
+        }
+
+        assertNull(new AuthenticationHeaderParser().parse(value.toString()));
+        assertNull(new AuthenticationHeaderParser().parse(null));
+    }
+
+    /**
+     * Compares the parser with the regular expression it replaces on random headers built from the tokens of the
+     * pattern.
+     */
+    @Test
+    public void sameResultAsRegularExpression() {
+        Pattern pattern = Pattern.compile("(\\S+) SignedHeaders=(\\S+), Credential=(\\S+), Signature=([\\S&&[^,]]+)");
+        List<String> tokens = Arrays.asList("DTA1", " SignedHeaders=", ", Credential=", ", Signature=", "a;b", "K/D",
+                ",", " ", "\t", "=", "/", ";", "", "\u00e9");
+        AuthenticationHeaderParser parser = new AuthenticationHeaderParser();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100000; ++i) {
+            StringBuilder value = new StringBuilder();
+            int count = random.nextInt(12);
+            for (int j = 0; j < count; ++j) {
+                value.append(tokens.get(random.nextInt(tokens.size())));
+            }
+            // Bias towards well formed headers with some corrupted characters
+            if (random.nextBoolean()) {
+                value.insert(0, "DTA1 SignedHeaders=a, Credential=K/D, Signature=");
+                value.setCharAt(random.nextInt(value.length()), tokens.get(random.nextInt(7)).charAt(0));
+            }
+
+            Matcher matcher = pattern.matcher(value);
+            AuthenticationHeader result = parser.parse(value.toString());
+            if (!matcher.lookingAt()) {
+                assertNull(value.toString(), result);
+                continue;
+            }
+
+            assertEquals(value.toString(), matcher.group(1), result.getAlgorithm());
+            assertEquals(value.toString(), matcher.group(2), result.getSignedHeaders());
+            assertEquals(value.toString(), matcher.group(3), result.getCredential());
+            assertEquals(value.toString(), matcher.group(4), result.getSignature());
+        }
+    }
+
+    /**
+     * Headers made to make a backtracking matcher retry every position, at the maximum length. The timeout is well
+     * above what a single pass over them takes.
+     */
+    @Test(timeout = 5000)
+    public void adversarialHeaders() {
+        List<String> repeated = Arrays.asList("a", ",", " SignedHeaders=", "x SignedHeaders=a,", ", Credential=",
+                "x SignedHeaders=a, Credential=b,", ", Signature=", "x SignedHeaders=a, Credential=b, Signature=");
+        AuthenticationHeaderParser parser = new AuthenticationHeaderParser();
+
+        for (String part : repeated) {
+            StringBuilder value = new StringBuilder();
+            while (value.length() + part.length() <= AuthenticationHeaderParser.MAX_HEADER_LENGTH) {
+                value.append(part);
+            }
+            String header = value.toString();
+
+            for (int i = 0; i < 1000; ++i) {
+                parser.parse(header);
+            }
+        }
+    }
 }
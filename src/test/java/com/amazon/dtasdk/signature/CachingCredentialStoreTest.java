@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazon.dtasdk.utils.Clock;
+
+public class CachingCredentialStoreTest {
+    private static final long TTL = 1000;
+    private static final long STALE = 500;
+
+    private static final Credential CREDENTIAL = new Credential("SECRET", "KEY");
+    private static final Credential ROTATED = new Credential("ROTATED", "KEY");
+
+    private StubProvider provider;
+    private ManualExecutor executor;
+    private ManualClock clock;
+    private CachingCredentialStore store;
+
+    @Before
+    public void setUp() {
+        provider = new StubProvider();
+        executor = new ManualExecutor();
+        clock = new ManualClock();
+        store = new CachingCredentialStore(provider, TTL, STALE, executor, clock);
+    }
+
+    @Test
+    public void testFetchesOnce() throws Exception {
+        provider.credentials.put("KEY", CREDENTIAL);
+
+        assertSame(CREDENTIAL, store.get("KEY"));
+        clock.time += TTL / 2;
+        assertSame(CREDENTIAL, store.find("KEY"));
+
+        assertEquals(1, provider.calls.get());
+        assertTrue(executor.tasks.isEmpty());
+        assertTrue(store.getAll().contains(CREDENTIAL));
+    }
+
+    @Test
+    public void testAddedCredentialsComeFirst() throws Exception {
+        Credential local = new Credential("LOCAL", "KEY");
+        provider.credentials.put("KEY", CREDENTIAL);
+        store.add(local);
+
+        assertSame(local, store.get("KEY"));
+        assertEquals(0, provider.calls.get());
+    }
+
+    @Test
+    public void testRefreshesAhead() throws Exception {
+        provider.credentials.put("KEY", CREDENTIAL);
+        store.find("KEY");
+
+        provider.credentials.put("KEY", ROTATED);
+        clock.time += TTL - TTL / 4;
+
+        // The cached credential is served while the refresh is pending
+        assertSame(CREDENTIAL, store.find("KEY"));
+        assertSame(CREDENTIAL, store.find("KEY"));
+        assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        assertEquals(2, provider.calls.get());
+        assertSame(ROTATED, store.find("KEY"));
+    }
+
+    @Test
+    public void testServesStaleWhileRevalidating() throws Exception {
+        provider.credentials.put("KEY", CREDENTIAL);
+        store.find("KEY");
+
+        clock.time += TTL + STALE / 2;
+        provider.failure = new IOException("unavailable");
+
+        assertSame(CREDENTIAL, store.find("KEY"));
+        executor.runAll();
+        assertSame(CREDENTIAL, store.find("KEY"));
+
+        // A failing refresh is not retried on every request
+        assertTrue(executor.tasks.isEmpty());
+        assertEquals(2, provider.calls.get());
+    }
+
+    @Test
+    public void testFetchesExpiredCredentialsSynchronously() throws Exception {
+        provider.credentials.put("KEY", CREDENTIAL);
+        store.find("KEY");
+
+        clock.time += TTL + STALE;
+        provider.credentials.put("KEY", ROTATED);
+        assertSame(ROTATED, store.find("KEY"));
+
+        clock.time += TTL + STALE;
+        provider.failure = new IOException("unavailable");
+        assertSame(ROTATED, store.find("KEY"));
+        assertTrue(executor.tasks.isEmpty());
+    }
+
+    @Test
+    public void testRemembersUnknownKeys() throws Exception {
+        assertNull(store.find("UNKNOWN"));
+        assertNull(store.find("UNKNOWN"));
+        assertEquals(1, provider.calls.get());
+        assertEquals(2, store.getMissCount());
+
+        clock.time += TTL;
+        provider.credentials.put("UNKNOWN", CREDENTIAL);
+        assertSame(CREDENTIAL, store.find("UNKNOWN"));
+    }
+
+    @Test
+    public void testLimitsFetchesOfUnknownKeys() throws Exception {
+        for (int i = 0; i < 2 * CachingCredentialStore.MAX_MISS_FETCHES_PER_INTERVAL; ++i) {
+            assertNull(store.find("RANDOM" + i));
+        }
+        assertEquals(CachingCredentialStore.MAX_MISS_FETCHES_PER_INTERVAL, provider.calls.get());
+
+        // Over the rate even a valid key is not found until the next interval
+        provider.credentials.put("KEY", CREDENTIAL);
+        assertNull(store.find("KEY"));
+        clock.time += CachingCredentialStore.MISS_FETCH_INTERVAL_MILLIS;
+        assertSame(CREDENTIAL, store.find("KEY"));
+        assertSame(CREDENTIAL, store.find("KEY"));
+        assertEquals(CachingCredentialStore.MAX_MISS_FETCHES_PER_INTERVAL + 1, provider.calls.get());
+    }
+
+    @Test(expected = CredentialNotFoundException.class)
+    public void testGetUnknownKey() throws Exception {
+        store.get("UNKNOWN");
+    }
+
+    @Test
+    public void testSingleFetchPerKey() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final CachingCredentialStore slowStore = new CachingCredentialStore(new CredentialProvider() {
+            @Override
+            public Credential getCredential(String publicKey) throws IOException {
+                calls.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return CREDENTIAL;
+            }
+        }, TTL, STALE, executor, clock);
+
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Credential>> results = new ArrayList<Future<Credential>>();
+            for (int i = 0; i < threads; ++i) {
+                results.add(pool.submit(new Callable<Credential>() {
+                    @Override
+                    public Credential call() throws Exception {
+                        return slowStore.find("KEY");
+                    }
+                }));
+            }
+
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<Credential> result : results) {
+                assertSame(CREDENTIAL, result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static class StubProvider implements CredentialProvider {
+        private final Map<String, Credential> credentials = new HashMap<String, Credential>();
+        private final AtomicInteger calls = new AtomicInteger();
+        private IOException failure;
+
+        @Override
+        public Credential getCredential(String publicKey) throws IOException {
+            calls.incrementAndGet();
+            if (failure != null) {
+                throw failure;
+            }
+            return credentials.get(publicKey);
+        }
+    }
+
+    private static class ManualExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        private void runAll() {
+            List<Runnable> pending = new ArrayList<Runnable>(tasks);
+            tasks.clear();
+            for (Runnable task : pending) {
+                task.run();
+            }
+        }
+    }
+
+    private static class ManualClock extends Clock {
+        private long time = 1000000;
+
+        @Override
+        public Date now() {
+            return new Date(time);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+/**
+ * Checks the single pass hashing against the canonical request built by the Signer.
+ */
+public class CanonicalRequestHasherTest {
+    private static final String DATE_TIME = "20110909T233600Z";
+
+    private final Signer signer = new Signer();
+
+    @Test
+    public void simpleRequest() throws Exception {
+        Request request = new Request("http://amazon.com/", Request.Method.GET, "application/json");
+        request.setHeader("x-amz-date", DATE_TIME);
+        request.setBody("body");
+
+        assertSameAsCanonicalRequest(request);
+    }
+
+    @Test
+    public void nullBody() throws Exception {
+        Request request = new Request("http://amazon.com/", Request.Method.POST, "application/json");
+        request.setBody(null);
+
+        assertSameAsCanonicalRequest(request);
+    }
+
+    @Test
+    public void whitespaceIsCollapsed() throws Exception {
+        Request request = new Request("http://amazon.com/path/to/servlet", Request.Method.POST, "application/json");
+        request.setHeader("X-Spaces", "  leading and   trailing  ");
+        request.setHeader("X-Mixed", "tab\tnew\nline\r\nform\fvertical\u000bend");
+        request.setHeader("Only-Whitespace", " \t ");
+        request.setHeader("Empty", "");
+        request.setHeader("Name With  Spaces", "value");
+        request.setBody("{\"json\": \"value\"}");
+
+        assertSameAsCanonicalRequest(request);
+    }
+
+    @Test
+    public void headersAreSortedIgnoringCase() throws Exception {
+        Request request = new Request("http://amazon.com/", Request.Method.GET, "application/json");
+        for (String name : Arrays.asList("zzz", "AAA", "Bbb", "x-amz-date", "X-Amz-Request-Id", "aaa-b")) {
+            request.setHeader(name, name);
+        }
+
+        assertSameAsCanonicalRequest(request);
+    }
+
+    @Test
+    public void nonAsciiContent() throws Exception {
+        Request request = new Request("http://amazon.com/café", Request.Method.POST, "application/json");
+        request.setHeader("x-unicode", "café € 😀 中文");
+        request.setHeader("X-ÉTÉ", "value");
+        request.setHeader("x-broken", "unpaired \ud83d and \ude00 surrogates");
+        request.setBody("{\"name\": \"José 😀\"}");
+
+        assertSameAsCanonicalRequest(request);
+    }
+
+    @Test
+    public void largeBody() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            body.append(i).append(i % 7 == 0 ? "é" : "a");
+        }
+
+        Request request = new Request("http://amazon.com/", Request.Method.POST, "application/json");
+        request.setBody(body.toString());
+
+        assertSameAsCanonicalRequest(request);
+    }
+
+    private void assertSameAsCanonicalRequest(Request request) throws Exception {
+        String canonicalRequest = signer.getCanonicalRequest(request);
+        StringBuilder signedHeaders = new StringBuilder();
+
+        byte[] hash = CanonicalRequestHasher.get().hashCanonicalRequest(request,
+                signer.getCanonicalizedResourcePath(new URL(request.getUrl()).getPath()), signedHeaders);
+
+        assertArrayEquals(signer.hash(canonicalRequest), hash);
+        assertEquals(signer.getSignedHeadersString(request), signedHeaders.toString());
+
+        SecretKeySpec key = signer.getSigningKey(new Credential("SECRETKEY", "KEYID"), "20110909");
+        List<String> dateTimes = Arrays.asList(DATE_TIME, "", "not a date");
+        for (String dateTime : dateTimes) {
+            byte[] expected = signer.sign(signer.getStringToSign(Signer.ALGORITHM_HEADER, dateTime, "",
+                    canonicalRequest), key);
+            assertArrayEquals(expected, signer.computeSignature(request, request.getHeaderNames(), dateTime, key,
+                    new StringBuilder()));
+        }
+    }
+}
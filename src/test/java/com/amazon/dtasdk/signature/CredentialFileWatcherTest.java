@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CredentialFileWatcherTest {
+    private static final long TIMEOUT = 10000;
+
+    private File directory;
+    private File file;
+    private CredentialStore store;
+    private CredentialFileWatcher watcher;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("credentials").toFile();
+        file = new File(directory, "keys.csv");
+        write(file, "SECRET1 KEY1\nSECRET2 KEY2\n");
+        store = new CredentialStore();
+    }
+
+    @After
+    public void tearDown() {
+        if (watcher != null) {
+            watcher.close();
+        }
+        for (File child : directory.listFiles()) {
+            child.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void reloadsWhenTheFileChanges() throws Exception {
+        watcher = new CredentialFileWatcher(store, file, 50, 200);
+        watcher.start();
+        assertEquals("SECRET1", store.get("KEY1").getSecretKey());
+
+        write(file, "ROTATED1 KEY1\nSECRET3 KEY3\n");
+
+        awaitSecret("KEY1", "ROTATED1");
+        assertEquals("SECRET3", store.get("KEY3").getSecretKey());
+        assertEquals(2, store.getAll().size());
+    }
+
+    @Test
+    public void reloadsWhenTheFileIsReplaced() throws Exception {
+        watcher = new CredentialFileWatcher(store, file, 50, 200);
+        watcher.start();
+
+        File replacement = new File(directory, "keys.csv.tmp");
+        write(replacement, "ROTATED1 KEY1\n");
+        Files.move(replacement.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        awaitSecret("KEY1", "ROTATED1");
+    }
+
+    @Test
+    public void pollsWithoutWatchService() throws Exception {
+        watcher = new CredentialFileWatcher(store, file, 50, 50, false);
+        watcher.start();
+
+        write(file, "ROTATED1 KEY1\n");
+
+        awaitSecret("KEY1", "ROTATED1");
+    }
+
+    @Test
+    public void keepsCredentialsWhenTheFileIsInvalid() throws Exception {
+        watcher = new CredentialFileWatcher(store, file, 50, 50);
+        watcher.start();
+
+        write(file, "ROTATED1 KEY1\nINVALID\n");
+        Thread.sleep(500);
+
+        assertEquals("SECRET1", store.get("KEY1").getSecretKey());
+        assertEquals(2, store.getAll().size());
+
+        write(file, "ROTATED1 KEY1\n");
+
+        awaitSecret("KEY1", "ROTATED1");
+    }
+
+    private void awaitSecret(String publicKey, String secretKey) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!secretKey.equals(store.get(publicKey).getSecretKey())) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("The credentials were not reloaded");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static void write(File file, String contents) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(contents);
+        writer.close();
+    }
+}
@@ -14,12 +14,24 @@
  */
 package com.amazon.dtasdk.signature;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import junit.framework.Assert;
 
@@ -114,9 +126,169 @@ public class CredentialStoreTest {
         store.get(INVALID_KEY);
     }
 
+    @Test
+    public void testFind() throws IOException {
+        CredentialStore store = new CredentialStore();
+        store.load(VALID_FILE);
+
+        Assert.assertEquals(KEYS[0], store.find(KEYS[1]).getSecretKey());
+        Assert.assertNull(store.find(INVALID_KEY));
+        Assert.assertNull(store.find(INVALID_KEY));
+        Assert.assertEquals(2, store.getMissCount());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testInvalidFile() throws IOException, CredentialNotFoundException {
         CredentialStore store = new CredentialStore();
         store.load(INVALID_FILE);
     }
+
+    @Test
+    public void testLoadSeparators() throws CredentialNotFoundException {
+        CredentialStore store = new CredentialStore();
+        store.load("SECRET1\tKEY1\r\n  SECRET2   KEY2  IGNORED \r\n \t \n\nS\u00c9CRET3 KEY\u20ac3");
+
+        Assert.assertEquals(3, store.getAll().size());
+        Assert.assertEquals("SECRET1", store.get("KEY1").getSecretKey());
+        Assert.assertEquals("SECRET2", store.get("KEY2").getSecretKey());
+        Assert.assertEquals("S\u00c9CRET3", store.get("KEY\u20ac3").getSecretKey());
+    }
+
+    @Test
+    public void testInvalidLineNumber() {
+        try {
+            new CredentialStore().load("SECRET1 KEY1\n\nSECRET2\nSECRET3 KEY3\n");
+            Assert.fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Invalid credentials format found on line 3", e.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyContents() {
+        new CredentialStore().load("");
+    }
+
+    /**
+     * Loads 100k credentials from a memory mapped file and from a stream, well within the timeout.
+     */
+    @Test(timeout = 30000)
+    public void testLoadManyCredentials() throws IOException, CredentialNotFoundException {
+        int count = 100000;
+        File file = File.createTempFile("store", "csv");
+        try {
+            Writer writer = new BufferedWriter(new FileWriter(file));
+            for (int i = 0; i < count; ++i) {
+                writer.write(String.format("secret-%08d-69b2048d-8bf8-4c1c-b49d-e6114897a9a5 public-%08d\n", i, i));
+            }
+            writer.close();
+
+            CredentialStore fromFile = new CredentialStore();
+            fromFile.load(file);
+            CredentialStore fromStream = new CredentialStore();
+            InputStream stream = new FileInputStream(file);
+            try {
+                fromStream.load(stream);
+            } finally {
+                stream.close();
+            }
+
+            for (CredentialStore store : Arrays.asList(fromFile, fromStream)) {
+                Assert.assertEquals(count, store.getAll().size());
+                for (int i = 0; i < count; i += 997) {
+                    Assert.assertEquals(String.format("secret-%08d-69b2048d-8bf8-4c1c-b49d-e6114897a9a5", i),
+                            store.get(String.format("public-%08d", i)).getSecretKey());
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testInvalidContentsAddNothing() throws CredentialNotFoundException {
+        CredentialStore store = new CredentialStore();
+        store.add(new Credential(KEYS[0], KEYS[1]));
+
+        try {
+            store.load(String.format("%s %s\n%s%s\n", KEYS[2], KEYS[3], KEYS[4], KEYS[5]));
+            Assert.fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        Assert.assertEquals(1, store.getAll().size());
+        Assert.assertEquals(KEYS[0], store.get(KEYS[1]).getSecretKey());
+    }
+
+    @Test
+    public void testAddAndRemove() throws CredentialNotFoundException {
+        CredentialStore store = new CredentialStore();
+        store.add(new Credential(KEYS[0], KEYS[1]));
+        store.add(new Credential(KEYS[2], KEYS[3]));
+        store.add(new Credential(KEYS[4], KEYS[1]));
+        store.remove(KEYS[3]);
+
+        Assert.assertEquals(1, store.getAll().size());
+        Assert.assertEquals(KEYS[4], store.get(KEYS[1]).getSecretKey());
+    }
+
+    /**
+     * Readers look up keys while a writer keeps loading and removing them. Keys loaded together must always be seen
+     * together.
+     */
+    @Test(timeout = 30000)
+    public void testReadsDuringReloads() throws Exception {
+        final CredentialStore store = new CredentialStore();
+        // KEYS[3] is loaded first and removed first, so a reader can only see it without KEYS[1] in a partial load
+        final String contents = String.format("%s %s\n%s %s\n", KEYS[2], KEYS[3], KEYS[0], KEYS[1]);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong reads = new AtomicLong();
+
+        store.add(new Credential(KEYS[4], KEYS[5]));
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<?>> readers = new ArrayList<Future<?>>();
+            for (int i = 0; i < 3; ++i) {
+                readers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        while (running.get()) {
+                            boolean first = false;
+                            boolean second = false;
+                            for (Credential credential : store.getAll()) {
+                                first |= KEYS[1].equals(credential.getPublicKey());
+                                second |= KEYS[3].equals(credential.getPublicKey());
+                            }
+                            if (second && !first) {
+                                throw new AssertionError("Saw a partially loaded store");
+                            }
+                            Assert.assertEquals(KEYS[4], store.get(KEYS[5]).getSecretKey());
+                            reads.incrementAndGet();
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            long start = System.currentTimeMillis();
+            long reloads = 0;
+            while (System.currentTimeMillis() - start < 500) {
+                store.load(contents);
+                store.remove(KEYS[3]);
+                store.remove(KEYS[1]);
+                ++reloads;
+            }
+            running.set(false);
+
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+            Assert.assertTrue(reloads > 0);
+            Assert.assertTrue(reads.get() > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class MacPoolTest {
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final SecretKeySpec KEY1 = new SecretKeySpec("KEY1".getBytes(), ALGORITHM);
+    private static final SecretKeySpec KEY2 = new SecretKeySpec("KEY2".getBytes(), ALGORITHM);
+
+    @Test
+    public void sameMacPerThread() throws Exception {
+        final MacPool pool = new MacPool(ALGORITHM);
+        Mac mac = pool.acquire(KEY1);
+
+        assertSame(mac, pool.acquire(KEY2));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Mac otherMac = executor.submit(new Callable<Mac>() {
+                @Override
+                public Mac call() throws Exception {
+                    return pool.acquire(KEY1);
+                }
+            }).get();
+
+            assertNotSame(mac, otherMac);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void switchingKeysMatchesFreshMac() throws Exception {
+        MacPool pool = new MacPool(ALGORITHM);
+        byte[] data = "data".getBytes();
+
+        for (SecretKeySpec key : new SecretKeySpec[] { KEY1, KEY1, KEY2, KEY1, KEY2, KEY2 }) {
+            assertArrayEquals(freshMac(key).doFinal(data), pool.acquire(key).doFinal(data));
+        }
+    }
+
+    @Test
+    public void unfinishedDataIsDiscarded() throws Exception {
+        MacPool pool = new MacPool(ALGORITHM);
+        byte[] data = "data".getBytes();
+
+        pool.acquire(KEY1).update("leftover".getBytes());
+
+        assertArrayEquals(freshMac(KEY1).doFinal(data), pool.acquire(KEY1).doFinal(data));
+    }
+
+    private Mac freshMac(SecretKeySpec key) throws Exception {
+        Mac mac = Mac.getInstance(ALGORITHM);
+        mac.init(key);
+        return mac;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NegativeCacheTest {
+    @Test
+    public void repeatedMissesAreReportedOncePerPeriod() {
+        NegativeCache cache = new NegativeCache(10, 1000);
+
+        assertTrue(cache.recordMiss("KEY", 0));
+        assertFalse(cache.recordMiss("KEY", 1));
+        assertFalse(cache.recordMiss("KEY", 999));
+        assertTrue(cache.contains("KEY", 999));
+        assertTrue(cache.recordMiss("OTHER", 999));
+
+        assertFalse(cache.contains("KEY", 1000));
+        assertTrue(cache.recordMiss("KEY", 1000));
+        assertFalse(cache.recordMiss("KEY", 1999));
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        NegativeCache cache = new NegativeCache(3, 1000);
+
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(cache.recordMiss("KEY" + i, 0));
+        }
+        assertFalse(cache.recordMiss("KEY3", 500));
+        assertEquals(3, cache.size());
+
+        // Expired keys make room for new ones
+        assertTrue(cache.recordMiss("KEY3", 1000));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void oldestKeysAreEvictedWhenFull() {
+        NegativeCache cache = new NegativeCache(3, 1000, true);
+
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(cache.recordMiss("KEY" + i, i));
+        }
+        assertTrue(cache.recordMiss("KEY3", 500));
+        assertEquals(3, cache.size());
+        assertFalse(cache.contains("KEY0", 500));
+        assertTrue(cache.contains("KEY1", 500));
+        assertTrue(cache.contains("KEY3", 500));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+public class RequestBodyReaderTest {
+    private static final String BODY = "{\"operation\": \"Purchase\", \"reason\": \"FULFILL\"}";
+
+    @Test
+    public void readsTheBodyAsItArrives() throws Exception {
+        ChunkedInputStream stream = new ChunkedInputStream();
+        CompletionStage<Request> result = RequestBodyReader.read(mockRequest(stream, BODY.length()), 1024, 10000);
+
+        stream.arrive(BODY.substring(0, 10));
+        stream.arrive(BODY.substring(10, 11), BODY.substring(11));
+        assertFalse(result.toCompletableFuture().isDone());
+        stream.end();
+
+        Request request = result.toCompletableFuture().get();
+        assertEquals(BODY, request.getBody());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(BODY.getBytes("UTF-8")), request.getBodyHash());
+        assertEquals("application/json", request.getHeader(Request.CONTENT_TYPE_HEADER));
+        assertEquals("http://amazon.com/", request.getUrl());
+    }
+
+    @Test
+    public void bodyLargerThanAnnounced() throws Exception {
+        ChunkedInputStream stream = new ChunkedInputStream();
+        CompletionStage<Request> result = RequestBodyReader.read(mockRequest(stream, 2), 1024, 10000);
+
+        stream.arrive(BODY);
+        stream.end();
+
+        assertEquals(BODY, result.toCompletableFuture().get().getBody());
+    }
+
+    @Test
+    public void rejectsLargeBodies() throws Exception {
+        ChunkedInputStream stream = new ChunkedInputStream();
+        CompletionStage<Request> result = RequestBodyReader.read(mockRequest(stream, -1), 16, 10000);
+
+        stream.arrive(BODY.substring(0, 10));
+        stream.arrive(BODY.substring(10));
+        stream.end();
+
+        assertFailsWithStatus(result.toCompletableFuture(), HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+    }
+
+    @Test
+    public void timesOut() throws Exception {
+        ChunkedInputStream stream = new ChunkedInputStream();
+        CompletionStage<Request> result = RequestBodyReader.read(mockRequest(stream, -1), 1024, 10);
+
+        stream.arrive(BODY.substring(0, 10));
+        assertFailsWithStatus(result.toCompletableFuture(), HttpServletResponse.SC_REQUEST_TIMEOUT);
+    }
+
+    private static void assertFailsWithStatus(CompletableFuture<Request> result, int status) throws Exception {
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("The body should not be read");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestBodyException);
+            assertEquals(status, ((RequestBodyException) e.getCause()).getStatus());
+        }
+    }
+
+    private static HttpServletRequest mockRequest(ServletInputStream stream, int contentLength) throws IOException {
+        HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        EasyMock.expect(request.getInputStream()).andReturn(stream);
+        EasyMock.expect(request.getContentLength()).andReturn(contentLength);
+        EasyMock.expect(request.getRequestURL()).andReturn(new StringBuffer("http://amazon.com/")).anyTimes();
+        EasyMock.expect(request.getQueryString()).andReturn(null).anyTimes();
+        EasyMock.expect(request.getMethod()).andReturn("POST").anyTimes();
+        EasyMock.expect(request.getHeaderNames()).andReturn(Collections.<String> emptyEnumeration()).anyTimes();
+        EasyMock.expect(request.getContentType()).andReturn("application/json").anyTimes();
+        EasyMock.replay(request);
+        return request;
+    }
+
+    /**
+     * Hands over chunks of data to the read listener the way a container does, one batch of chunks at a time.
+     */
+    private static class ChunkedInputStream extends ServletInputStream {
+        private final Deque<byte[]> chunks = new ArrayDeque<byte[]>();
+        private ReadListener listener;
+        private boolean finished;
+
+        void arrive(String... data) throws IOException {
+            for (String chunk : data) {
+                chunks.add(chunk.getBytes("UTF-8"));
+            }
+            listener.onDataAvailable();
+        }
+
+        void end() throws IOException {
+            finished = true;
+            listener.onAllDataRead();
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            byte[] chunk = chunks.poll();
+            if (chunk == null) {
+                return finished ? -1 : 0;
+            }
+            System.arraycopy(chunk, 0, buffer, offset, chunk.length);
+            return chunk.length;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished && chunks.isEmpty();
+        }
+
+        @Override
+        public boolean isReady() {
+            return !chunks.isEmpty();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            this.listener = readListener;
+        }
+    }
+}
@@ -14,10 +14,13 @@
  */
 package com.amazon.dtasdk.signature;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -25,6 +28,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import javax.servlet.ReadListener;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 
@@ -112,6 +116,21 @@ public class RequestTest {
             public int read() throws IOException {
                 return stream.read();
             }
+
+            @Override
+            public boolean isFinished() {
+                return stream.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         EasyMock.replay(hsr);
@@ -154,6 +173,21 @@ public class RequestTest {
             public int read() throws IOException {
                 return stream.read();
             }
+
+            @Override
+            public boolean isFinished() {
+                return stream.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         EasyMock.replay(hsr);
@@ -169,4 +203,81 @@ public class RequestTest {
 
         EasyMock.verify(hsr);
     }
+
+    @Test
+    public void fromHttpServletRequest_hashesUtf8Body() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 5000; ++i) {
+            builder.append("José 😀 ");
+        }
+        String body = builder.toString();
+        final byte[] bodyBytes = body.getBytes("UTF-8");
+
+        // Announce a shorter body than the real one so the buffer has to grow
+        for (String contentLength : Arrays.asList(null, "10", String.valueOf(bodyBytes.length), "invalid")) {
+            HttpServletRequest hsr = EasyMock.createMock(HttpServletRequest.class);
+
+            Map<String, String> headers = new HashMap<String, String>();
+            if (contentLength != null) {
+                headers.put("Content-Length", contentLength);
+            }
+            EasyMock.expect(hsr.getHeaderNames()).andReturn(Collections.enumeration(headers.keySet()));
+            for (Entry<String, String> e : headers.entrySet()) {
+                EasyMock.expect(hsr.getHeader(e.getKey())).andReturn(e.getValue());
+            }
+
+            EasyMock.expect(hsr.getMethod()).andReturn("POST");
+            EasyMock.expect(hsr.getContentType()).andReturn("application/json");
+            EasyMock.expect(hsr.getRequestURL()).andReturn(new StringBuffer("http://amazon.com/servlet/path"));
+            EasyMock.expect(hsr.getQueryString()).andReturn(null);
+            EasyMock.expect(hsr.getInputStream()).andReturn(new ServletInputStream() {
+                private final ByteArrayInputStream stream = new ByteArrayInputStream(bodyBytes);
+
+                @Override
+                public int read() throws IOException {
+                    return stream.read();
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return stream.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    throw new UnsupportedOperationException();
+                }
+            });
+
+            EasyMock.replay(hsr);
+
+            Request request = new Request(hsr);
+
+            assertArrayEquals(bodyBytes, request.getBodyBytes());
+            assertEquals(body, request.getBody());
+            assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(bodyBytes), request.getBodyHash());
+
+            EasyMock.verify(hsr);
+        }
+    }
+
+    @Test
+    public void setBodyClearsHash() {
+        Request request = new Request("http://amazon.com", Request.Method.POST, "application/json");
+        request.setBody("body");
+
+        assertNull(request.getBodyHash());
+        assertEquals("body", request.getBody());
+        assertArrayEquals("body".getBytes(), request.getBodyBytes());
+
+        request.setBody(null);
+
+        assertNull(request.getBody());
+        assertNull(request.getBodyBytes());
+    }
 }
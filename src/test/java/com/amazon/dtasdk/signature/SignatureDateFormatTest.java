@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ * 
+ *  http://aws.amazon.com/apache2.0
+ * 
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SimpleTimeZone;
+
+import org.junit.Test;
+
+public class SignatureDateFormatTest {
+    @Test
+    public void formatsLikeSimpleDateFormat() {
+        SimpleDateFormat dateTimeFormat = utcFormat("yyyyMMdd'T'HHmmss'Z'");
+        SimpleDateFormat dateStampFormat = utcFormat("yyyyMMdd");
+
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; ++i) {
+            // Any time between 1970 and 2100
+            long millis = (long) (random.nextDouble() * 4102444800000L);
+
+            assertEquals(dateTimeFormat.format(millis), SignatureDateFormat.formatDateTime(millis));
+            assertEquals(dateStampFormat.format(millis), SignatureDateFormat.formatDateStamp(millis));
+        }
+    }
+
+    @Test
+    public void parsesLikeSimpleDateFormat() throws Exception {
+        SimpleDateFormat dateTimeFormat = utcFormat("yyyyMMdd'T'HHmmss'Z'");
+
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; ++i) {
+            long seconds = (long) (random.nextDouble() * 4102444800L);
+            String dateTime = dateTimeFormat.format(seconds * 1000);
+
+            assertEquals(dateTime, dateTimeFormat.parse(dateTime).getTime(),
+                    SignatureDateFormat.parseDateTime(dateTime));
+        }
+    }
+
+    @Test
+    public void parsesCalendarEdges() throws Exception {
+        SimpleDateFormat dateTimeFormat = utcFormat("yyyyMMdd'T'HHmmss'Z'");
+
+        for (String dateTime : Arrays.asList("19700101T000000Z", "20000229T235959Z", "20111231T235959Z",
+                "20120101T000000Z", "21000301T000000Z", "19691231T235959Z")) {
+            assertEquals(dateTime, dateTimeFormat.parse(dateTime).getTime(),
+                    SignatureDateFormat.parseDateTime(dateTime));
+        }
+    }
+
+    @Test
+    public void rejectsMalformedDates() {
+        for (String dateTime : Arrays.asList(null, "", "20110909T233600", "20110909T233600ZZ", "20110909 233600Z",
+                "2011-09-09T23:36Z", "20110909T2336000", "201109O9T233600Z", "20111309T233600Z", "20110009T233600Z",
+                "20110931T233600Z", "21000229T233600Z", "20110909T243600Z", "20110909T236000Z", "20110909T233660Z",
+                "+0110909T233600Z", "٢٠110909T233600Z")) {
+            assertEquals(String.valueOf(dateTime), SignatureDateFormat.INVALID_DATE,
+                    SignatureDateFormat.parseDateTime(dateTime));
+        }
+    }
+
+    @Test
+    public void parsesDateStamps() throws Exception {
+        SimpleDateFormat dateStampFormat = utcFormat("yyyyMMdd");
+
+        for (String dateStamp : Arrays.asList("19700101", "20000229", "20110909", "21000301", "19691231")) {
+            assertEquals(dateStamp, dateStampFormat.parse(dateStamp).getTime(),
+                    SignatureDateFormat.parseDateStamp(dateStamp));
+        }
+        for (String dateStamp : Arrays.asList(null, "", "2011090", "201109090", "2011-9-9", "20111301", "21000229")) {
+            assertEquals(String.valueOf(dateStamp), SignatureDateFormat.INVALID_DATE,
+                    SignatureDateFormat.parseDateStamp(dateStamp));
+        }
+    }
+
+    private static SimpleDateFormat utcFormat(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(new SimpleTimeZone(0, "UTC"));
+        return format;
+    }
+}
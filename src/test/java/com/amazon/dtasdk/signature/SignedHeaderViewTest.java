@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SignedHeaderViewTest {
+    private static final List<String> NAMES = Arrays.asList("aaa", "AAB", "Authorization", "content-type",
+            "Content-Length", "x-amz-date", "X-Amz-Request-Id", "zzz", "a", "b;c", "");
+
+    @Test
+    public void onlySignedHeaders() {
+        Request request = requestWithHeaders(Arrays.asList("aaa", "bbb", "Content-Type", "x-amz-date", "zzz"));
+
+        assertEquals(Arrays.asList("aaa", "Content-Type", "zzz"),
+                list(new SignedHeaderView(request.getHeaderNames(), "aaa;content-type;zzz", "Authorization")));
+        assertEquals(Collections.emptyList(),
+                list(new SignedHeaderView(request.getHeaderNames(), "", "Authorization")));
+        assertEquals(Arrays.asList("aaa", "Content-Type", "x-amz-date"), list(new SignedHeaderView(
+                request.getHeaderNames(), "AAA;CONTENT-TYPE;ccc;X-AMZ-DATE", "Authorization")));
+    }
+
+    @Test
+    public void excludedHeaderIsNeverIncluded() {
+        Request request = requestWithHeaders(Arrays.asList("aaa", "Authorization", "zzz"));
+
+        assertEquals(Arrays.asList("aaa", "zzz"),
+                list(new SignedHeaderView(request.getHeaderNames(), "aaa;authorization;zzz", "Authorization")));
+    }
+
+    /**
+     * Compares the view with stripping the request of its unsigned headers, for signed header lists sorted the way
+     * a valid signature lists them.
+     */
+    @Test
+    public void sameHeadersAsRemovingUnsignedHeaders() {
+        Signer signer = new Signer();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10000; ++i) {
+            Request request = requestWithHeaders(randomNames(random));
+            List<String> signed = randomNames(random);
+            Collections.sort(signed, String.CASE_INSENSITIVE_ORDER);
+            StringBuilder signedHeaders = new StringBuilder();
+            for (String name : signed) {
+                signedHeaders.append(signedHeaders.length() > 0 ? ";" : "").append(name.toLowerCase());
+            }
+
+            List<String> view = list(new SignedHeaderView(request.getHeaderNames(), signedHeaders.toString(),
+                    "Authorization"));
+
+            request.removeHeader("Authorization");
+            signer.removeUnsignedHeaders(request, signedHeaders.toString().split(";"));
+            List<String> expected = new ArrayList<String>(request.getHeaderNames());
+            expected.remove("");
+
+            view.remove("");
+            assertEquals(signedHeaders.toString(), expected, view);
+        }
+    }
+
+    private static List<String> randomNames(Random random) {
+        List<String> names = new ArrayList<String>();
+        for (String name : NAMES) {
+            if (random.nextBoolean()) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    private static Request requestWithHeaders(List<String> names) {
+        Request request = new Request("http://amazon.com/", Request.Method.GET, "application/json");
+        request.removeHeader("Content-Type");
+        for (String name : names) {
+            request.setHeader(name, name);
+        }
+        return request;
+    }
+
+    private static List<String> list(Iterable<String> names) {
+        List<String> result = new ArrayList<String>();
+        for (String name : names) {
+            result.add(name);
+        }
+        return result;
+    }
+}
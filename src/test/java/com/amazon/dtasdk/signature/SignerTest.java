@@ -21,6 +21,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.TimeZone;
@@ -195,6 +197,31 @@ public class SignerTest {
         assertTrue(signer.verify(verificationRequest, credential));
     }
 
+    @Test
+    public void verifyDoesNotModifyRequest() throws SigningException {
+        String authorization = "DTA1-HMAC-SHA256 SignedHeaders=aaa;content-type;x-amz-date;zzz, "
+                + "Credential=KEYID/20110909, "
+                + "Signature=16ec5ffa0e33e8ec8f87f14bb5fd8a03545dbffe99eb3a89f5de450e791ef262";
+        Clock clock = createMock(Clock.class);
+        expect(clock.now()).andReturn(getDate(2011, 9, 9, 23, 36, 0)).anyTimes();
+        replay(clock);
+
+        Signer signer = new Signer(clock, new AuthenticationHeaderParser());
+
+        Request verificationRequest = new Request("http://amazon.com", Request.Method.GET, "application/json");
+        verificationRequest.setBody("body");
+        verificationRequest.setHeader("aaa", "aaa");
+        verificationRequest.setHeader("bbb", "unsigned");
+        verificationRequest.setHeader("zzz", "zzz");
+        verificationRequest.setHeader(X_AMZ_DATE_HEADER, "20110909T233600Z");
+        verificationRequest.setHeader(AUTHORIZATION_HEADER, authorization);
+
+        assertTrue(signer.verify(verificationRequest, new Credential("SECRETKEY", "KEYID")));
+        assertEquals(Arrays.asList("aaa", AUTHORIZATION_HEADER, "bbb", "Content-Type", X_AMZ_DATE_HEADER, "zzz"),
+                new ArrayList<String>(verificationRequest.getHeaderNames()));
+        assertEquals(authorization, verificationRequest.getHeader(AUTHORIZATION_HEADER));
+    }
+
     @Test
     public void roundTripWithCredentialStore() throws SigningException {
         Clock clock = createMock(Clock.class);
@@ -356,6 +383,127 @@ public class SignerTest {
         assertFalse(signer.verify(verificationRequest, credential));
     }
 
+    @Test
+    public void verifyComparesEveryAuthorizationComponent() throws SigningException {
+        String signedHeaders = "aaa;content-type;x-amz-date;zzz";
+        String signature = "16ec5ffa0e33e8ec8f87f14bb5fd8a03545dbffe99eb3a89f5de450e791ef262";
+        String valid = "DTA1-HMAC-SHA256 SignedHeaders=" + signedHeaders + ", Credential=KEYID/20110909, Signature="
+                + signature;
+
+        assertTrue(verifyWithAuthorization(valid));
+        assertTrue(verifyWithAuthorization(valid.replace(signature, signature.toUpperCase())));
+
+        assertFalse(verifyWithAuthorization(valid.replace("16ec", "16ed")));
+        assertFalse(verifyWithAuthorization(valid.replace(signature, signature.substring(2))));
+        assertFalse(verifyWithAuthorization(valid.replace(signature, signature + "00")));
+        assertFalse(verifyWithAuthorization(valid.replace(signature, "zz" + signature.substring(2))));
+        assertFalse(verifyWithAuthorization(valid.replace("DTA1-HMAC-SHA256", "DTA2-HMAC-SHA256")));
+        assertFalse(verifyWithAuthorization(valid.replace("KEYID/20110909", "KEYID/20110909/extra")));
+        assertFalse(verifyWithAuthorization(valid.replace("KEYID/20110909", "KEYID/20110908")));
+        assertFalse(verifyWithAuthorization(valid.replace("KEYID/20110909", "KEYID-20110909")));
+        assertFalse(verifyWithAuthorization(valid.replace(signedHeaders, "aaa;content-type;x-amz-date")));
+        assertFalse(verifyWithAuthorization("prefix " + valid));
+        assertFalse(verifyWithAuthorization(valid + ", Credential=KEYID2/20110909, Signature=" + signature));
+    }
+
+    @Test
+    public void verifyRequestTellsWhyItFails() throws SigningException {
+        String valid = "DTA1-HMAC-SHA256 SignedHeaders=aaa;content-type;x-amz-date;zzz, Credential=KEYID/20110909, "
+                + "Signature=16ec5ffa0e33e8ec8f87f14bb5fd8a03545dbffe99eb3a89f5de450e791ef262";
+        Clock clock = createMock(Clock.class);
+        expect(clock.now()).andReturn(getDate(2011, 9, 9, 23, 36, 0)).anyTimes();
+        replay(clock);
+
+        Signer signer = new Signer(clock, new AuthenticationHeaderParser());
+        CredentialStore store = new CredentialStore();
+        store.add(new Credential("SECRETKEY", "KEYID"));
+
+        assertEquals(VerificationResult.VALID, signer.verifyRequest(verificationRequest(valid, null), store));
+        assertEquals(VerificationResult.MISSING_AUTHORIZATION,
+                signer.verifyRequest(verificationRequest(null, null), store));
+        Request noDate = verificationRequest(valid, null);
+        noDate.removeHeader(X_AMZ_DATE_HEADER);
+        assertEquals(VerificationResult.MISSING_DATE, signer.verifyRequest(noDate, store));
+        assertEquals(VerificationResult.BAD_FORMAT,
+                signer.verifyRequest(verificationRequest(valid, "2011-09-09T23:36:00Z"), store));
+        assertEquals(VerificationResult.BAD_FORMAT,
+                signer.verifyRequest(verificationRequest("NOT AN AUTHORIZATION", null), store));
+        assertEquals(VerificationResult.BAD_FORMAT,
+                signer.verifyRequest(verificationRequest(valid.replace("DTA1", "DTA2"), null), store));
+        assertEquals(VerificationResult.BAD_FORMAT,
+                signer.verifyRequest(verificationRequest(valid.replace("KEYID/", "KEYID-"), null), store));
+        assertEquals(VerificationResult.CLOCK_SKEW,
+                signer.verifyRequest(verificationRequest(valid, "20110909T235200Z"), store));
+        assertEquals(VerificationResult.CLOCK_SKEW,
+                signer.verifyRequest(verificationRequest(valid.replace("/20110909", "/20110908"), null), store));
+        assertEquals(VerificationResult.UNKNOWN_KEY,
+                signer.verifyRequest(verificationRequest(valid.replace("KEYID/", "OTHERKEY/"), null), store));
+        assertEquals(VerificationResult.BAD_SIGNATURE,
+                signer.verifyRequest(verificationRequest(valid.replace("16ec", "16ed"), null), store));
+
+        assertEquals(1, signer.getVerificationCount(VerificationResult.VALID));
+        assertEquals(4, signer.getVerificationCount(VerificationResult.BAD_FORMAT));
+        assertEquals(2, signer.getVerificationCount(VerificationResult.CLOCK_SKEW));
+        assertEquals(1, signer.getVerificationCount(VerificationResult.BAD_SIGNATURE));
+    }
+
+    @Test
+    public void requestsSignedBeforeMidnightValidateAfterIt() throws SigningException {
+        CredentialStore store = new CredentialStore();
+        store.add(new Credential("SECRETKEY", "KEYID"));
+
+        // Signed with the key of the previous day, then of the next day by a clock ahead of the verifier
+        assertEquals(VerificationResult.VALID, signAndVerify(getDate(2011, 9, 9, 23, 59, 30),
+                getDate(2011, 9, 10, 0, 2, 0), store));
+        assertEquals(VerificationResult.VALID, signAndVerify(getDate(2011, 9, 10, 0, 0, 30),
+                getDate(2011, 9, 9, 23, 58, 0), store));
+        assertEquals(VerificationResult.CLOCK_SKEW, signAndVerify(getDate(2011, 9, 9, 23, 40, 0),
+                getDate(2011, 9, 10, 0, 2, 0), store));
+    }
+
+    private VerificationResult signAndVerify(Date signedAt, Date verifiedAt, CredentialStore store)
+            throws SigningException {
+        Clock signingClock = createMock(Clock.class);
+        expect(signingClock.now()).andReturn(signedAt).anyTimes();
+        Clock verifyingClock = createMock(Clock.class);
+        expect(verifyingClock.now()).andReturn(verifiedAt).anyTimes();
+        replay(signingClock, verifyingClock);
+
+        Request request = verificationRequest(null, null);
+        new Signer(signingClock, new AuthenticationHeaderParser()).sign(request, store.find("KEYID"));
+
+        return new Signer(verifyingClock, new AuthenticationHeaderParser()).verifyRequest(request, store);
+    }
+
+    private static Request verificationRequest(String authorization, String dateTime) {
+        Request request = new Request("http://amazon.com", Request.Method.GET, "application/json");
+        request.setBody("body");
+        request.setHeader("aaa", "aaa");
+        request.setHeader("zzz", "zzz");
+        request.setHeader(X_AMZ_DATE_HEADER, dateTime == null ? "20110909T233600Z" : dateTime);
+        if (authorization != null) {
+            request.setHeader(AUTHORIZATION_HEADER, authorization);
+        }
+        return request;
+    }
+
+    private boolean verifyWithAuthorization(String authorization) throws SigningException {
+        Clock clock = createMock(Clock.class);
+        expect(clock.now()).andReturn(getDate(2011, 9, 9, 23, 36, 0)).anyTimes();
+        replay(clock);
+
+        Signer signer = new Signer(clock, new AuthenticationHeaderParser());
+
+        Request verificationRequest = new Request("http://amazon.com", Request.Method.GET, "application/json");
+        verificationRequest.setBody("body");
+        verificationRequest.setHeader("aaa", "aaa");
+        verificationRequest.setHeader("zzz", "zzz");
+        verificationRequest.setHeader(X_AMZ_DATE_HEADER, "20110909T233600Z");
+        verificationRequest.setHeader(AUTHORIZATION_HEADER, authorization);
+
+        return signer.verify(verificationRequest, new Credential("SECRETKEY", "KEYID"));
+    }
+
     private Date getDate(int year, int month, int day, int hour, int minute, int second) {
         GregorianCalendar calendar = new GregorianCalendar();
         calendar.setTimeZone(TimeZone.getTimeZone("Z"));
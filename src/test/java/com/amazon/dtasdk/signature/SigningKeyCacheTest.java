@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class SigningKeyCacheTest {
+    private static final SecretKeySpec KEY = new SecretKeySpec(new byte[] { 1, 2, 3 }, "HmacSHA256");
+
+    @Test
+    public void getCachedKey() {
+        SigningKeyCache cache = new SigningKeyCache();
+        Credential credential = new Credential("SECRETKEY", "KEYID");
+
+        assertNull(cache.get(credential, "20110909"));
+
+        cache.put(credential, "20110909", KEY);
+
+        assertSame(KEY, cache.get(credential, "20110909"));
+        assertSame(KEY, cache.get(new Credential("SECRETKEY", "KEYID"), "20110909"));
+        assertNull(cache.get(credential, "20110910"));
+        assertNull(cache.get(new Credential("SECRETKEY", "OTHERKEYID"), "20110909"));
+    }
+
+    @Test
+    public void replacedSecretIsNotReturned() {
+        SigningKeyCache cache = new SigningKeyCache();
+        cache.put(new Credential("SECRETKEY", "KEYID"), "20110909", KEY);
+
+        assertNull(cache.get(new Credential("NEWSECRETKEY", "KEYID"), "20110909"));
+    }
+
+    @Test
+    public void dayRolloverDropsOldEntries() {
+        SigningKeyCache cache = new SigningKeyCache();
+        Credential credential = new Credential("SECRETKEY", "KEYID");
+
+        cache.put(credential, "20110908", KEY);
+        cache.put(credential, "20110909", KEY);
+        assertEquals(2, cache.size());
+
+        cache.put(credential, "20110910", KEY);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get(credential, "20110908"));
+        assertSame(KEY, cache.get(credential, "20110909"));
+        assertSame(KEY, cache.get(credential, "20110910"));
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        SigningKeyCache cache = new SigningKeyCache(10);
+
+        for (int i = 0; i < 100; ++i) {
+            cache.put(new Credential("SECRETKEY", "KEYID" + i), "20110909", KEY);
+        }
+
+        assertTrue(cache.size() <= 10);
+    }
+
+    @Test
+    public void fullCacheDropsTheOldestDay() {
+        SigningKeyCache cache = new SigningKeyCache(4);
+        Credential credential1 = new Credential("SECRETKEY", "KEYID1");
+        Credential credential2 = new Credential("SECRETKEY", "KEYID2");
+
+        cache.put(credential1, "20110908", KEY);
+        cache.put(credential2, "20110908", KEY);
+        cache.put(credential1, "20110909", KEY);
+        cache.put(credential2, "20110909", KEY);
+
+        // The keys of the next day replace the oldest day, never the current one
+        cache.put(credential1, "20110910", KEY);
+        assertNull(cache.get(credential1, "20110908"));
+        assertSame(KEY, cache.get(credential1, "20110909"));
+        assertSame(KEY, cache.get(credential2, "20110909"));
+        assertSame(KEY, cache.get(credential1, "20110910"));
+    }
+
+    @Test
+    public void signerSizesTheCacheFromTheCredentials() throws SigningException {
+        Signer signer = new Signer();
+        List<Credential> credentials = new ArrayList<Credential>();
+        for (int i = 0; i < SigningKeyCache.DEFAULT_MAX_ENTRIES; ++i) {
+            credentials.add(new Credential("SECRETKEY", "KEYID" + i));
+        }
+
+        long day = SignatureDateFormat.MILLIS_PER_DAY;
+        signer.deriveSigningKeys(credentials, 0);
+        SecretKeySpec today = signer.getSigningKey(credentials.get(0), "19700101");
+        signer.deriveSigningKeys(credentials, day);
+
+        assertSame(today, signer.getSigningKey(credentials.get(0), "19700101"));
+    }
+
+    @Test
+    public void signerReusesDerivedKey() throws SigningException {
+        Signer signer = new Signer();
+        Credential credential = new Credential("SECRETKEY", "KEYID");
+
+        SecretKeySpec key = signer.getSigningKey(credential, "20110909");
+
+        assertSame(key, signer.getSigningKey(credential, "20110909"));
+        assertArrayEquals(signer.sign("20110909", "SECRETKEY"), key.getEncoded());
+    }
+}
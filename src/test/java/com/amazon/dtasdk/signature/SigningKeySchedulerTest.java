@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.signature;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+import com.amazon.dtasdk.utils.Clock;
+
+public class SigningKeySchedulerTest {
+    private static final long MINUTE = 60 * 1000;
+    private static final long DAY = 24 * 60 * MINUTE;
+    // 2011-09-09T00:00:00Z
+    private static final long SEPTEMBER_9 = 1315526400000L;
+
+    private final List<String> derived = new ArrayList<String>();
+    private final Signer signer = new Signer() {
+        @Override
+        protected SecretKeySpec getSigningKey(Credential credential, String dateStamp) throws SigningException {
+            derived.add(credential.getPublicKey() + "/" + dateStamp);
+            return super.getSigningKey(credential, dateStamp);
+        }
+    };
+
+    @Test
+    public void derivesTheNextDayBeforeMidnight() {
+        CredentialStore store = new CredentialStore();
+        store.add(new Credential("SECRET1", "KEY1"));
+        store.add(new Credential("SECRET2", "KEY2"));
+        ManualClock clock = new ManualClock();
+        SigningKeyScheduler scheduler = new SigningKeyScheduler(signer, store, 5 * MINUTE, clock);
+
+        clock.time = SEPTEMBER_9 + 12 * 60 * MINUTE;
+        assertEquals(12 * 60 * MINUTE - 5 * MINUTE, scheduler.deriveKeys());
+        assertEquals(0, derived.size());
+
+        clock.time = SEPTEMBER_9 + DAY - 5 * MINUTE;
+        assertEquals(DAY, scheduler.deriveKeys());
+        derived.sort(null);
+        assertEquals(Arrays.asList("KEY1/20110910", "KEY2/20110910"), derived);
+    }
+
+    @Test
+    public void derivesLateRunsForTheComingDay() {
+        CredentialStore store = new CredentialStore();
+        store.add(new Credential("SECRET1", "KEY1"));
+        ManualClock clock = new ManualClock();
+        SigningKeyScheduler scheduler = new SigningKeyScheduler(signer, store, 5 * MINUTE, clock);
+
+        clock.time = SEPTEMBER_9 + DAY - MINUTE;
+        assertEquals(DAY - 4 * MINUTE, scheduler.deriveKeys());
+        assertEquals(Arrays.asList("KEY1/20110910"), derived);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void leadMustBeWithinTolerance() {
+        new SigningKeyScheduler(signer, new CredentialStore(), Signer.TIME_TOLERANCE + 1);
+    }
+
+    private static class ManualClock extends Clock {
+        private long time;
+
+        @Override
+        public Date now() {
+            return new Date(time);
+        }
+    }
+}
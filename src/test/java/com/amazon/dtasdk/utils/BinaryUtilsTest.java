@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ * 
+ *  http://aws.amazon.com/apache2.0
+ * 
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BinaryUtilsTest {
+    @Test
+    public void hexRoundTrip() {
+        Random random = new Random(42);
+        for (int length = 0; length < 64; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            StringBuilder expected = new StringBuilder();
+            for (byte b : data) {
+                expected.append(String.format("%02x", b));
+            }
+
+            String hex = BinaryUtils.toHex(data);
+
+            assertEquals(expected.toString(), hex);
+            assertArrayEquals(data, BinaryUtils.fromHex(hex));
+            assertArrayEquals(data, BinaryUtils.fromHex(hex.toUpperCase(Locale.ROOT)));
+        }
+    }
+
+    @Test
+    public void bufferVariants() {
+        byte[] data = { 0, 1, (byte) 0x7f, (byte) 0x80, (byte) 0xab, (byte) 0xff };
+
+        char[] chars = new char[14];
+        chars[0] = '[';
+        chars[13] = ']';
+        BinaryUtils.toHex(data, chars, 1);
+        assertEquals("[00017f80abff]", new String(chars));
+
+        StringBuilder builder = new StringBuilder("hex=");
+        BinaryUtils.appendHex(data, builder);
+        assertEquals("hex=00017f80abff", builder.toString());
+
+        byte[] decoded = new byte[8];
+        assertEquals(6, BinaryUtils.fromHex(new StringBuilder("00017F80abFF"), decoded, 1));
+        assertArrayEquals(new byte[] { 0, 0, 1, (byte) 0x7f, (byte) 0x80, (byte) 0xab, (byte) 0xff, 0 }, decoded);
+    }
+
+    @Test
+    public void hexIgnoresDefaultLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+
+            assertEquals("abcdef", BinaryUtils.toHex(new byte[] { (byte) 0xab, (byte) 0xcd, (byte) 0xef }));
+            assertArrayEquals(new byte[] { (byte) 0xab, (byte) 0xcd, (byte) 0xef }, BinaryUtils.fromHex("ABCDEF"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void fromHexRejectsOddLength() {
+        BinaryUtils.fromHex("abc");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void fromHexRejectsNonHexDigits() {
+        BinaryUtils.fromHex("0g");
+    }
+}
@@ -16,6 +16,7 @@ package com.amazon.dtasdk.utils;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Date;
 
@@ -32,4 +33,26 @@ public class ClockTest {
         Clock clock = new Clock();
         assertNotSame(clock.now(), clock.now());
     }
+
+    @Test
+    public void currentTimeMillisMatchesNow() {
+        Clock clock = new Clock();
+        long before = clock.now().getTime();
+        long millis = clock.currentTimeMillis();
+        long after = clock.now().getTime();
+
+        assertTrue(before <= millis && millis <= after);
+    }
+
+    @Test
+    public void currentTimeMillisUsesOverriddenNow() {
+        Clock clock = new Clock() {
+            @Override
+            public Date now() {
+                return new Date(42);
+            }
+        };
+
+        assertEquals(42, clock.currentTimeMillis());
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ * 
+ *  http://aws.amazon.com/apache2.0
+ * 
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.net.URLEncoder;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class HttpUtilsTest {
+    /** The characters of the random values, biased towards the ones with special handling */
+    private static final String CHARACTERS = "aZ09-._~*+/% \t?=&#:@!$'()[];,é€中😀𐀀";
+
+    @Test
+    public void encodesPerRfc3986() {
+        assertEquals("", HttpUtils.urlEncode(null, false));
+        assertEquals("a%20b%2Ac~d%2Be%2Ff", HttpUtils.urlEncode("a b*c~d+e/f", false));
+        assertEquals("/path/to%20servlet", HttpUtils.urlEncode("/path/to servlet", true));
+        assertEquals("caf%C3%A9%F0%9F%98%80", HttpUtils.urlEncode("café😀", true));
+    }
+
+    @Test
+    public void unreservedValueIsReturnedAsIs() {
+        String value = "/path/to/servlet-1.0_~";
+
+        assertSame(value, HttpUtils.urlEncode(value, true));
+    }
+
+    @Test
+    public void sameResultAsUrlEncoderWithPostFilters() throws Exception {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100000; ++i) {
+            StringBuilder value = new StringBuilder();
+            int length = random.nextInt(16);
+            for (int j = 0; j < length; ++j) {
+                value.append(random.nextInt(8) == 0 ? (char) random.nextInt(0x10000)
+                        : CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+            }
+
+            for (boolean path : new boolean[] { false, true }) {
+                assertEquals(value.toString(), legacyUrlEncode(value.toString(), path),
+                        HttpUtils.urlEncode(value.toString(), path));
+            }
+        }
+    }
+
+    /**
+     * The implementation urlEncode replaced.
+     */
+    private static String legacyUrlEncode(String value, boolean path) throws Exception {
+        Pattern pattern = Pattern.compile(Pattern.quote("+") + "|" + Pattern.quote("*") + "|" + Pattern.quote("%7E")
+                + "|" + Pattern.quote("%2F"));
+        String encoded = URLEncoder.encode(value, "UTF-8");
+
+        Matcher matcher = pattern.matcher(encoded);
+        StringBuffer buffer = new StringBuffer(encoded.length());
+
+        while (matcher.find()) {
+            String replacement = matcher.group(0);
+
+            if ("+".equals(replacement)) {
+                replacement = "%20";
+            } else if ("*".equals(replacement)) {
+                replacement = "%2A";
+            } else if ("%7E".equals(replacement)) {
+                replacement = "~";
+            } else if (path && "%2F".equals(replacement)) {
+                replacement = "/";
+            }
+
+            matcher.appendReplacement(buffer, replacement);
+        }
+
+        matcher.appendTail(buffer);
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+public class KeyedSerialExecutorTest {
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void tasksOfTheSameKeyRunInOrder() throws Exception {
+        KeyedSerialExecutor executor = new KeyedSerialExecutor();
+        CompletableFuture<String> first = new CompletableFuture<String>();
+
+        CompletionStage<String> firstResult = executor.executeAsync("key", task("first", first));
+        CompletionStage<String> secondResult = executor.executeAsync("key",
+                task("second", CompletableFuture.completedFuture("second")));
+        CompletionStage<String> otherResult = executor.executeAsync("other",
+                task("other", CompletableFuture.completedFuture("other")));
+
+        // The task of another key runs, the second task of the key waits for the first one to complete
+        assertEquals(Arrays.asList("first", "other"), events);
+        assertTrue(otherResult.toCompletableFuture().isDone());
+        assertFalse(secondResult.toCompletableFuture().isDone());
+
+        first.complete("first");
+        assertEquals("first", firstResult.toCompletableFuture().get(1, TimeUnit.SECONDS));
+        assertEquals("second", secondResult.toCompletableFuture().get(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("first", "other", "second"), events);
+    }
+
+    @Test
+    public void failuresDoNotBlockTheKey() throws Exception {
+        KeyedSerialExecutor executor = new KeyedSerialExecutor();
+
+        try {
+            executor.execute("key", new Supplier<String>() {
+                @Override
+                public String get() {
+                    throw new IllegalArgumentException();
+                }
+            });
+            fail("Expected the failure of the task");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        CompletableFuture<String> failed = new CompletableFuture<String>();
+        failed.completeExceptionally(new IllegalArgumentException());
+        executor.executeAsync("key", task("failed", failed));
+
+        assertEquals("next", executor.execute("key", new Supplier<String>() {
+            @Override
+            public String get() {
+                return "next";
+            }
+        }));
+    }
+
+    @Test
+    public void waitersTimeOutWithoutBreakingTheOrder() throws Exception {
+        KeyedSerialExecutor executor = new KeyedSerialExecutor(1, 10);
+        CompletableFuture<String> first = new CompletableFuture<String>();
+        executor.executeAsync("key", task("first", first));
+
+        try {
+            executor.execute("key", new Supplier<String>() {
+                @Override
+                public String get() {
+                    events.add("timed out");
+                    return null;
+                }
+            });
+            fail("Expected a timeout");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        CompletionStage<String> third = executor.executeAsync("key",
+                task("third", CompletableFuture.completedFuture("third")));
+        assertFalse(third.toCompletableFuture().isDone());
+
+        first.complete("first");
+        assertEquals("third", third.toCompletableFuture().get(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("first", "third"), events);
+    }
+
+    @Test
+    public void keysOfTheSameStripeRunInParallel() throws Exception {
+        KeyedSerialExecutor executor = new KeyedSerialExecutor(1, 1000);
+        CompletableFuture<String> first = new CompletableFuture<String>();
+        CompletionStage<String> firstResult = executor.executeAsync("key", task("first", first));
+
+        // The only stripe holds a pending task of another key, which neither the synchronous nor the asynchronous
+        // tasks of this key wait for
+        assertEquals("other", executor.execute("other", new Supplier<String>() {
+            @Override
+            public String get() {
+                return "other";
+            }
+        }));
+        CompletionStage<String> otherResult = executor.executeAsync("other",
+                task("other", CompletableFuture.completedFuture("other")));
+        assertTrue(otherResult.toCompletableFuture().isDone());
+        assertFalse(firstResult.toCompletableFuture().isDone());
+
+        // The key still runs its tasks in order once the others are forgotten
+        CompletionStage<String> secondResult = executor.executeAsync("key",
+                task("second", CompletableFuture.completedFuture("second")));
+        assertFalse(secondResult.toCompletableFuture().isDone());
+        first.complete("first");
+        assertEquals("second", secondResult.toCompletableFuture().get(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("first", "other", "second"), events);
+    }
+
+    @Test
+    public void waitingTasksStartOnTheExecutor() throws Exception {
+        KeyedSerialExecutor executor = new KeyedSerialExecutor();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<String> first = new CompletableFuture<String>();
+            executor.executeAsync("key", task("first", first), pool);
+
+            final CompletableFuture<Thread> thread = new CompletableFuture<Thread>();
+            CompletionStage<String> second = executor.executeAsync("key", new Supplier<CompletionStage<String>>() {
+                @Override
+                public CompletionStage<String> get() {
+                    thread.complete(Thread.currentThread());
+                    return CompletableFuture.completedFuture("second");
+                }
+            }, pool);
+
+            // The thread completing the first task does not run the second one
+            first.complete("first");
+            assertEquals("second", second.toCompletableFuture().get(1, TimeUnit.SECONDS));
+            assertNotSame(Thread.currentThread(), thread.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Supplier<CompletionStage<String>> task(final String name, final CompletionStage<String> result) {
+        return new Supplier<CompletionStage<String>>() {
+            @Override
+            public CompletionStage<String> get() {
+                events.add(name);
+                return result;
+            }
+        };
+    }
+}
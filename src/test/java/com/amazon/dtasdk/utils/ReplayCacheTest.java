@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+public class ReplayCacheTest {
+    private static final long TTL = 1000;
+
+    private final TestClock clock = new TestClock();
+
+    @Test
+    public void resultsExpire() {
+        ReplayCache<String> cache = new ReplayCache<String>(10, TTL, clock);
+        cache.put("key", "value");
+
+        assertEquals("value", cache.get("key"));
+        clock.time += TTL - 1;
+        assertEquals("value", cache.get("key"));
+        clock.time += 1;
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.size());
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        ReplayCache<String> cache = new ReplayCache<String>(2, TTL, clock);
+        assertTrue(cache.put("key1", "value1"));
+        assertTrue(cache.put("key2", "value2"));
+
+        assertFalse(cache.put("key3", "value3"));
+        assertNull(cache.get("key3"));
+
+        // Known keys can still be replaced, and expired ones make room for new keys
+        assertTrue(cache.put("key1", "other"));
+        assertEquals("other", cache.get("key1"));
+        clock.time += TTL;
+        assertTrue(cache.put("key3", "value3"));
+        assertEquals("value3", cache.get("key3"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void oldestResultsExpireFirst() {
+        ReplayCache<String> cache = new ReplayCache<String>(4, TTL, clock);
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(cache.put("key" + i, "value" + i));
+            clock.time += 10;
+        }
+
+        // Only the results older than the time to live are dropped to make room
+        clock.time += TTL - 35;
+        assertTrue(cache.put("key4", "value4"));
+        assertNull(cache.get("key0"));
+        assertEquals("value1", cache.get("key1"));
+        assertEquals(4, cache.size());
+        assertFalse(cache.put("key5", "value5"));
+
+        // A result removed after it expired does not leave a stale entry behind
+        clock.time += 10;
+        assertNull(cache.get("key1"));
+        assertTrue(cache.put("key5", "value5"));
+        assertFalse(cache.put("key6", "value6"));
+        assertEquals("value2", cache.get("key2"));
+        assertEquals(4, cache.size());
+    }
+
+    @Test
+    public void replacedResultsKeepTheirPlace() {
+        ReplayCache<String> cache = new ReplayCache<String>(2, TTL, clock);
+        assertTrue(cache.put("key1", "value1"));
+
+        // Repeated results of a key neither take more room nor live longer than the first one
+        for (int i = 0; i < 100; ++i) {
+            clock.time += 1;
+            assertTrue(cache.put("key1", "other" + i));
+        }
+        assertEquals("other99", cache.get("key1"));
+        assertTrue(cache.put("key2", "value2"));
+
+        clock.time += TTL - 100;
+        assertNull(cache.get("key1"));
+        assertEquals("value2", cache.get("key2"));
+        assertTrue(cache.put("key3", "value3"));
+        assertEquals(2, cache.size());
+    }
+
+    private static class TestClock extends Clock {
+        private long time = 1000000;
+
+        @Override
+        public Date now() {
+            return new Date(time);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017-2021 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazon.dtasdk.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SingleFlightTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentCallsShareTheResult() throws Exception {
+        final SingleFlight<Object> singleFlight = new SingleFlight<Object>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Object result = new Object();
+
+        Callable<Object> task = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return singleFlight.execute("key", new Supplier<Object>() {
+                    @Override
+                    public Object get() {
+                        calls.incrementAndGet();
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return result;
+                    }
+                });
+            }
+        };
+
+        Future<Object> first = executor.submit(task);
+        started.await();
+        Future<Object> second = executor.submit(task);
+        while (singleFlight.getSharedCount() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertSame(result, first.get());
+        assertSame(result, second.get());
+        assertEquals(1, calls.get());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    public void waitersTimeOut() throws Exception {
+        final SingleFlight<Object> singleFlight = new SingleFlight<Object>(10);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Future<Object> first = executor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return singleFlight.execute("key", new Supplier<Object>() {
+                    @Override
+                    public Object get() {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return "first";
+                    }
+                });
+            }
+        });
+        started.await();
+
+        try {
+            singleFlight.execute("key", new Supplier<Object>() {
+                @Override
+                public Object get() {
+                    return "second";
+                }
+            });
+            fail("Expected a timeout");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        release.countDown();
+        assertEquals("first", first.get());
+    }
+
+    @Test
+    public void failuresAreShared() {
+        final SingleFlight<Object> singleFlight = new SingleFlight<Object>();
+        final RuntimeException failure = new RuntimeException();
+
+        try {
+            singleFlight.execute("key", new Supplier<Object>() {
+                @Override
+                public Object get() {
+                    throw failure;
+                }
+            });
+            fail("Expected the failure of the call");
+        } catch (RuntimeException e) {
+            assertSame(failure, e);
+        }
+
+        // A failed call is not in flight anymore
+        assertEquals("next", singleFlight.execute("key", new Supplier<Object>() {
+            @Override
+            public Object get() {
+                return "next";
+            }
+        }));
+    }
+
+    @Test
+    public void asyncCallsShareTheStage() throws Exception {
+        SingleFlight<String> singleFlight = new SingleFlight<String>();
+        final CompletableFuture<String> call = new CompletableFuture<String>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        Supplier<CompletionStage<String>> supplier = new Supplier<CompletionStage<String>>() {
+            @Override
+            public CompletionStage<String> get() {
+                calls.incrementAndGet();
+                return call;
+            }
+        };
+
+        CompletableFuture<String> first = singleFlight.executeAsync("key", supplier).toCompletableFuture();
+        CompletableFuture<String> second = singleFlight.executeAsync("key", supplier).toCompletableFuture();
+        assertEquals(1, singleFlight.size());
+
+        call.complete("result");
+        assertEquals("result", first.get(1, TimeUnit.SECONDS));
+        assertEquals("result", second.get(1, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(1, singleFlight.getSharedCount());
+        assertEquals(0, singleFlight.size());
+    }
+}
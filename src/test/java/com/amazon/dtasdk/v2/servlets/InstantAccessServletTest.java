@@ -17,16 +17,29 @@ package com.amazon.dtasdk.v2.servlets;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Vector;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
 import javax.servlet.ServletInputStream;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import junit.framework.Assert;
 
+import org.easymock.Capture;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.Test;
 
 import com.amazon.dtasdk.base.InstantAccessOperationValue;
@@ -38,6 +51,8 @@ import com.amazon.dtasdk.signature.Request;
 import com.amazon.dtasdk.signature.Request.Method;
 import com.amazon.dtasdk.signature.Signer;
 import com.amazon.dtasdk.signature.SigningException;
+import com.amazon.dtasdk.signature.SigningKeyScheduler;
+import com.amazon.dtasdk.signature.VerificationResult;
 
 /**
  * Test class for InstantAccessServlet.
@@ -71,6 +86,33 @@ public class InstantAccessServletTest {
         }
     }
 
+    private class AsyncInstantAccessServletImpl extends InstantAccessServletImpl {
+
+        private final CompletableFuture<InstantAccessResponse<?>> result;
+
+        public AsyncInstantAccessServletImpl(CredentialStore store,
+                CompletableFuture<InstantAccessResponse<?>> result) {
+            super(store);
+            this.result = result;
+        }
+
+        @Override
+        public CompletionStage<? extends InstantAccessResponse<?>> processOperationAsync(
+                InstantAccessOperationValue instantAccessOperationValue, String requestBody) {
+            return result;
+        }
+
+        @Override
+        protected Executor getAsyncExecutor() {
+            return new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            };
+        }
+    }
+
     @Test
     public void testDoPost() throws SigningException, IOException {
         HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
@@ -93,11 +135,23 @@ public class InstantAccessServletTest {
         mockRequest(request, bodyContent, credential);
 
         final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(("{\"response\":\"" + RESPONSE + "\"}").length());
         EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
             @Override
             public void write(int b) throws IOException {
                 output.write(b);
             }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         response.setStatus(HttpServletResponse.SC_OK);
@@ -109,6 +163,7 @@ public class InstantAccessServletTest {
         EasyMock.verify(request, response);
 
         Assert.assertEquals("{\"response\":\"" + RESPONSE + "\"}", output.toString());
+        Assert.assertEquals(1, servlet.getSigner().getVerificationCount(VerificationResult.VALID));
     }
 
     @Test
@@ -133,11 +188,23 @@ public class InstantAccessServletTest {
         mockRequest(request, bodyContent, credential);
 
         new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
         EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
             @Override
             public void write(int b) throws IOException {
                 throw new IOException("");
             }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         // Response first set to OK and then should be finally set to ISE after exception
@@ -205,6 +272,275 @@ public class InstantAccessServletTest {
         EasyMock.verify(request, response);
     }
 
+    @Test
+    public void testDoPostAsync() throws SigningException, IOException {
+        HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        HttpServletResponse response = EasyMock.createMock(HttpServletResponse.class);
+        AsyncContext asyncContext = EasyMock.createMock(AsyncContext.class);
+
+        CredentialStore store = new CredentialStore();
+        Credential credential = new Credential("SECRETKEY", "KEYID");
+        store.add(credential);
+
+        CompletableFuture<InstantAccessResponse<?>> result = new CompletableFuture<InstantAccessResponse<?>>();
+        InstantAccessServlet servlet = new AsyncInstantAccessServletImpl(store, result);
+
+        mockRequest(request, "{\"operation\": \"GetUserId\"}", credential);
+        EasyMock.expect(request.startAsync()).andReturn(asyncContext);
+        EasyMock.expect(request.getContentLength()).andReturn(-1);
+        asyncContext.setTimeout(InstantAccessServlet.DEFAULT_ASYNC_TIMEOUT_MILLIS);
+        asyncContext.addListener(EasyMock.<AsyncListener>anyObject());
+        asyncContext.complete();
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
+        EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                output.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        response.setStatus(HttpServletResponse.SC_OK);
+
+        EasyMock.replay(request, response, asyncContext);
+
+        servlet.doPost(request, response);
+
+        // The response is only written once the handler completes
+        Assert.assertEquals(0, output.size());
+        result.complete(new InstantAccessResponse<String>() {
+            {
+                setResponse(RESPONSE);
+            }
+        });
+
+        EasyMock.verify(request, response, asyncContext);
+
+        Assert.assertEquals("{\"response\":\"" + RESPONSE + "\"}", output.toString());
+    }
+
+    @Test
+    public void testDoPostAsyncTimeout() throws Exception {
+        HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        HttpServletResponse response = EasyMock.createMock(HttpServletResponse.class);
+        AsyncContext asyncContext = EasyMock.createMock(AsyncContext.class);
+
+        CredentialStore store = new CredentialStore();
+        Credential credential = new Credential("SECRETKEY", "KEYID");
+        store.add(credential);
+
+        CompletableFuture<InstantAccessResponse<?>> result = new CompletableFuture<InstantAccessResponse<?>>();
+        InstantAccessServlet servlet = new AsyncInstantAccessServletImpl(store, result);
+
+        mockRequest(request, "{\"operation\": \"GetUserId\"}", credential);
+        Capture<AsyncListener> listener = new Capture<AsyncListener>();
+        EasyMock.expect(request.startAsync()).andReturn(asyncContext);
+        EasyMock.expect(request.getContentLength()).andReturn(-1);
+        asyncContext.setTimeout(InstantAccessServlet.DEFAULT_ASYNC_TIMEOUT_MILLIS);
+        asyncContext.addListener(EasyMock.capture(listener));
+        asyncContext.complete();
+
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+
+        EasyMock.replay(request, response, asyncContext);
+
+        servlet.doPost(request, response);
+        listener.getValue().onTimeout(null);
+
+        // A handler completing after the timeout does not touch the response
+        result.completeExceptionally(new IllegalStateException());
+
+        EasyMock.verify(request, response, asyncContext);
+    }
+
+    @Test
+    public void testDoPostAsyncRefused() throws Exception {
+        HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        HttpServletResponse response = EasyMock.createMock(HttpServletResponse.class);
+
+        InstantAccessServlet servlet = new AsyncInstantAccessServletImpl(new CredentialStore(),
+                new CompletableFuture<InstantAccessResponse<?>>());
+
+        EasyMock.expect(request.startAsync()).andThrow(new IllegalStateException("Not supported"));
+        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+
+        EasyMock.replay(request, response);
+
+        servlet.doPost(request, response);
+
+        EasyMock.verify(request, response);
+    }
+
+    @Test
+    public void testDoPostAsyncReadListenerRefused() throws Exception {
+        HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        HttpServletResponse response = EasyMock.createMock(HttpServletResponse.class);
+        AsyncContext asyncContext = EasyMock.createMock(AsyncContext.class);
+
+        InstantAccessServlet servlet = new AsyncInstantAccessServletImpl(new CredentialStore(),
+                new CompletableFuture<InstantAccessResponse<?>>());
+
+        EasyMock.expect(request.startAsync()).andReturn(asyncContext);
+        EasyMock.expect(request.getContentLength()).andReturn(-1);
+        EasyMock.expect(request.getInputStream()).andReturn(new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return -1;
+            }
+
+            @Override
+            public boolean isFinished() {
+                return true;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                throw new IllegalStateException("Already set");
+            }
+        });
+        asyncContext.setTimeout(InstantAccessServlet.DEFAULT_ASYNC_TIMEOUT_MILLIS);
+        asyncContext.addListener(EasyMock.<AsyncListener>anyObject());
+        asyncContext.complete();
+        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+
+        EasyMock.replay(request, response, asyncContext);
+
+        servlet.doPost(request, response);
+
+        EasyMock.verify(request, response, asyncContext);
+    }
+
+    @Test
+    public void testDoPostAsyncBodyTooLarge() throws Exception {
+        HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        HttpServletResponse response = EasyMock.createMock(HttpServletResponse.class);
+        AsyncContext asyncContext = EasyMock.createMock(AsyncContext.class);
+
+        InstantAccessServlet servlet = new AsyncInstantAccessServletImpl(new CredentialStore(),
+                new CompletableFuture<InstantAccessResponse<?>>()) {
+            @Override
+            protected int getMaxBodySize() {
+                return 8;
+            }
+        };
+
+        final String bodyContent = "{\"operation\": \"GetUserId\"}";
+        EasyMock.expect(request.startAsync()).andReturn(asyncContext);
+        EasyMock.expect(request.getContentLength()).andReturn(bodyContent.length());
+        EasyMock.expect(request.getInputStream()).andReturn(new ServletInputStream() {
+            private final ByteArrayInputStream stream = new ByteArrayInputStream(bodyContent.getBytes());
+
+            @Override
+            public int read() throws IOException {
+                return stream.read();
+            }
+
+            @Override
+            public boolean isFinished() {
+                return stream.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return stream.available() > 0;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                try {
+                    readListener.onDataAvailable();
+                    readListener.onAllDataRead();
+                } catch (IOException e) {
+                    readListener.onError(e);
+                }
+            }
+        });
+        asyncContext.setTimeout(InstantAccessServlet.DEFAULT_ASYNC_TIMEOUT_MILLIS);
+        asyncContext.addListener(EasyMock.<AsyncListener>anyObject());
+        asyncContext.complete();
+        response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+
+        EasyMock.replay(request, response, asyncContext);
+
+        servlet.doPost(request, response);
+
+        EasyMock.verify(request, response, asyncContext);
+    }
+
+    @Test
+    public void testDoPostAsyncBodyTimeout() throws Exception {
+        HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        HttpServletResponse response = EasyMock.createMock(HttpServletResponse.class);
+        AsyncContext asyncContext = EasyMock.createMock(AsyncContext.class);
+
+        InstantAccessServlet servlet = new AsyncInstantAccessServletImpl(new CredentialStore(),
+                new CompletableFuture<InstantAccessResponse<?>>()) {
+            @Override
+            protected long getBodyReadTimeout() {
+                return 10;
+            }
+        };
+
+        // The body never arrives
+        EasyMock.expect(request.startAsync()).andReturn(asyncContext);
+        EasyMock.expect(request.getContentLength()).andReturn(-1);
+        EasyMock.expect(request.getInputStream()).andReturn(new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return -1;
+            }
+
+            @Override
+            public boolean isFinished() {
+                return false;
+            }
+
+            @Override
+            public boolean isReady() {
+                return false;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+            }
+        });
+        asyncContext.setTimeout(InstantAccessServlet.DEFAULT_ASYNC_TIMEOUT_MILLIS);
+        asyncContext.addListener(EasyMock.<AsyncListener>anyObject());
+        final CountDownLatch completed = new CountDownLatch(1);
+        asyncContext.complete();
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() {
+                completed.countDown();
+                return null;
+            }
+        });
+        response.setStatus(HttpServletResponse.SC_REQUEST_TIMEOUT);
+
+        EasyMock.replay(request, response, asyncContext);
+
+        servlet.doPost(request, response);
+        Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+
+        EasyMock.verify(request, response, asyncContext);
+    }
+
     protected void mockRequest(HttpServletRequest request, final String bodyContent, Credential credential)
             throws IOException, SigningException {
         Signer signer = new Signer();
@@ -224,6 +560,26 @@ public class InstantAccessServletTest {
             public int read() throws IOException {
                 return stream.read();
             }
+
+            @Override
+            public boolean isFinished() {
+                return stream.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                try {
+                    readListener.onDataAvailable();
+                    readListener.onAllDataRead();
+                } catch (IOException e) {
+                    readListener.onError(e);
+                }
+            }
         });
 
         EasyMock.expect(request.getHeaderNames()).andReturn((new Vector<String>() {
@@ -238,4 +594,36 @@ public class InstantAccessServletTest {
             EasyMock.expect(request.getHeader(n)).andReturn(req.getHeader(n)).anyTimes();
         }
     }
+
+    @Test
+    public void testInitDerivesSigningKeys() throws Exception {
+        final AtomicInteger getAllCalls = new AtomicInteger();
+        CredentialStore store = new CredentialStore() {
+            @Override
+            public Collection<Credential> getAll() {
+                getAllCalls.incrementAndGet();
+                return super.getAll();
+            }
+        };
+        store.add(new Credential("SECRETKEY", "KEYID"));
+
+        // The scheduler is off by default, the store is not used before the first request
+        InstantAccessServlet disabled = new InstantAccessServletImpl(store);
+        disabled.init();
+        disabled.destroy();
+        Assert.assertEquals(0, getAllCalls.get());
+
+        InstantAccessServlet servlet = new InstantAccessServletImpl(store) {
+            @Override
+            protected long getSigningKeyLead() {
+                return SigningKeyScheduler.DEFAULT_LEAD_MILLIS;
+            }
+        };
+        servlet.init();
+        try {
+            Assert.assertEquals(1, getAllCalls.get());
+        } finally {
+            servlet.destroy();
+        }
+    }
 }
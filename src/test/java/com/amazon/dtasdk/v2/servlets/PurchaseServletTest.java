@@ -14,21 +14,36 @@
  */
 package com.amazon.dtasdk.v2.servlets;
 
+import com.amazon.dtasdk.base.InstantAccessOperationValue;
+import com.amazon.dtasdk.base.InstantAccessResponse;
 import com.amazon.dtasdk.base.SubscriptionResponse;
 import com.amazon.dtasdk.base.SubscriptionResponseValue;
 import com.amazon.dtasdk.v2.serialization.messages.*;
+import com.amazon.dtasdk.serializer.SerializationException;
 import com.amazon.dtasdk.signature.Credential;
 import com.amazon.dtasdk.signature.CredentialStore;
 import com.amazon.dtasdk.signature.SigningException;
+import com.amazon.dtasdk.utils.KeyedSerialExecutor;
+import com.amazon.dtasdk.utils.ReplayCache;
+import com.amazon.dtasdk.utils.SingleFlight;
 import junit.framework.Assert;
 import org.easymock.EasyMock;
 import org.junit.Test;
 
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Test class for InstantAccessServlet.
@@ -110,11 +125,23 @@ public class PurchaseServletTest extends InstantAccessServletTest {
         mockRequest(request, bodyContent, credential);
 
         final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
         EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
             @Override
             public void write(int b) throws IOException {
                 output.write(b);
             }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         response.setStatus(HttpServletResponse.SC_OK);
@@ -152,11 +179,23 @@ public class PurchaseServletTest extends InstantAccessServletTest {
         mockRequest(request, bodyContent, credential);
 
         final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
         EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
             @Override
             public void write(int b) throws IOException {
                 output.write(b);
             }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         response.setStatus(HttpServletResponse.SC_OK);
@@ -193,11 +232,23 @@ public class PurchaseServletTest extends InstantAccessServletTest {
         mockRequest(request, bodyContent, credential);
 
         final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
         EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
             @Override
             public void write(int b) throws IOException {
                 output.write(b);
             }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         response.setStatus(HttpServletResponse.SC_OK);
@@ -234,11 +285,23 @@ public class PurchaseServletTest extends InstantAccessServletTest {
         mockRequest(request, bodyContent, credential);
 
         final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
         EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
             @Override
             public void write(int b) throws IOException {
                 output.write(b);
             }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         response.setStatus(HttpServletResponse.SC_OK);
@@ -251,4 +314,222 @@ public class PurchaseServletTest extends InstantAccessServletTest {
 
         Assert.assertEquals("{\"response\":\"" + SUBSCRIPTIONACTION_RESPONSE + "\"}", output.toString());
     }
+
+    @Test
+    public void testReplayCache() throws Exception {
+        final ReplayCache<InstantAccessResponse<?>> replayCache = new ReplayCache<InstantAccessResponse<?>>();
+        final AtomicInteger fulfillCount = new AtomicInteger();
+        final FulfillPurchaseResponse fulfillResponse = new FulfillPurchaseResponse();
+
+        PurchaseServletImpl servlet = new PurchaseServletImpl(new CredentialStore()) {
+            @Override
+            protected ReplayCache<InstantAccessResponse<?>> getReplayCache() {
+                return replayCache;
+            }
+
+            @Override
+            public FulfillPurchaseResponse fulfillPurchase(FulfillPurchaseRequest request) {
+                fulfillCount.incrementAndGet();
+                return fulfillResponse;
+            }
+        };
+
+        String purchase = "{\"operation\": \"Purchase\", \"purchaseToken\": \"%s\"}";
+        String revoke = "{\"operation\": \"Revoke\", \"purchaseToken\": \"%s\"}";
+
+        // Transient failures are processed again
+        fulfillResponse.setResponse(FulfillPurchaseResponseValue.FAIL_OTHER);
+        servlet.processOperation(InstantAccessOperationValue.PURCHASE, String.format(purchase, "token1"));
+        servlet.processOperation(InstantAccessOperationValue.PURCHASE, String.format(purchase, "token1"));
+        Assert.assertEquals(2, fulfillCount.get());
+
+        fulfillResponse.setResponse(FulfillPurchaseResponseValue.OK);
+        servlet.processOperation(InstantAccessOperationValue.PURCHASE, String.format(purchase, "token1"));
+        Assert.assertSame(fulfillResponse,
+                servlet.processOperation(InstantAccessOperationValue.PURCHASE, String.format(purchase, "token1")));
+        Assert.assertEquals(3, fulfillCount.get());
+
+        // Other purchase tokens and operations are processed
+        servlet.processOperation(InstantAccessOperationValue.PURCHASE, String.format(purchase, "token2"));
+        Assert.assertEquals(4, fulfillCount.get());
+        InstantAccessResponse<?> revokeResponse = servlet.processOperation(InstantAccessOperationValue.REVOKE,
+                String.format(revoke, "token1"));
+        Assert.assertEquals(REVOKE_RESPONSE, revokeResponse.getResponse());
+
+        Assert.assertEquals(1, replayCache.getHitCount());
+        Assert.assertEquals(3, replayCache.size());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        final SingleFlight<InstantAccessResponse<?>> singleFlight = new SingleFlight<InstantAccessResponse<?>>();
+        final AtomicInteger fulfillCount = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final PurchaseServletImpl servlet = new PurchaseServletImpl(new CredentialStore()) {
+            @Override
+            protected SingleFlight<InstantAccessResponse<?>> getSingleFlight() {
+                return singleFlight;
+            }
+
+            @Override
+            public FulfillPurchaseResponse fulfillPurchase(FulfillPurchaseRequest request) {
+                fulfillCount.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.fulfillPurchase(request);
+            }
+        };
+
+        Callable<InstantAccessResponse<?>> purchase = new Callable<InstantAccessResponse<?>>() {
+            @Override
+            public InstantAccessResponse<?> call() throws Exception {
+                return servlet.processOperation(InstantAccessOperationValue.PURCHASE,
+                        "{\"operation\": \"Purchase\", \"purchaseToken\": \"token\"}");
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<InstantAccessResponse<?>> first = executor.submit(purchase);
+            started.await();
+            Future<InstantAccessResponse<?>> retry = executor.submit(purchase);
+            while (singleFlight.getSharedCount() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            Assert.assertSame(first.get(), retry.get());
+            Assert.assertEquals(FULFILL_RESPONSE, first.get().getResponse());
+            Assert.assertEquals(1, fulfillCount.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSerialExecutor() throws Exception {
+        final KeyedSerialExecutor serialExecutor = new KeyedSerialExecutor();
+        final CompletableFuture<FulfillPurchaseResponse> fulfillment = new CompletableFuture<FulfillPurchaseResponse>();
+        final AtomicInteger revokeCount = new AtomicInteger();
+
+        PurchaseServletImpl servlet = new PurchaseServletImpl(new CredentialStore()) {
+            @Override
+            protected KeyedSerialExecutor getSerialExecutor() {
+                return serialExecutor;
+            }
+
+            @Override
+            public CompletionStage<FulfillPurchaseResponse> fulfillPurchaseAsync(FulfillPurchaseRequest request) {
+                return fulfillment;
+            }
+
+            @Override
+            public RevokePurchaseResponse revokePurchase(RevokePurchaseRequest request) {
+                revokeCount.incrementAndGet();
+                return super.revokePurchase(request);
+            }
+        };
+
+        String purchase = "{\"operation\": \"Purchase\", \"purchaseToken\": \"%s\"}";
+        String revoke = "{\"operation\": \"Revoke\", \"purchaseToken\": \"%s\"}";
+
+        servlet.processOperationAsync(InstantAccessOperationValue.PURCHASE, String.format(purchase, "token1"));
+        CompletionStage<? extends InstantAccessResponse<?>> revokeResult = servlet.processOperationAsync(
+                InstantAccessOperationValue.REVOKE, String.format(revoke, "token1"));
+
+        // The revoke waits for the purchase of its token, the ones of other tokens run
+        servlet.processOperation(InstantAccessOperationValue.REVOKE, String.format(revoke, "token2"));
+        Assert.assertEquals(1, revokeCount.get());
+        Assert.assertFalse(revokeResult.toCompletableFuture().isDone());
+
+        FulfillPurchaseResponse fulfillResponse = new FulfillPurchaseResponse();
+        fulfillResponse.setResponse(FULFILL_RESPONSE);
+        fulfillment.complete(fulfillResponse);
+
+        Assert.assertEquals(REVOKE_RESPONSE, revokeResult.toCompletableFuture().get().getResponse());
+        Assert.assertEquals(2, revokeCount.get());
+    }
+
+    @Test
+    public void testMissingOperation() throws SigningException, IOException {
+        HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        HttpServletResponse response = EasyMock.createMock(HttpServletResponse.class);
+
+        CredentialStore store = new CredentialStore();
+        Credential credential = new Credential("SECRETKEY", "KEYID");
+        store.add(credential);
+
+        PurchaseServletImpl servlet = new PurchaseServletImpl(store);
+
+        mockRequest(request, "{\"purchaseToken\": \"6f3092e5-0326-42b7-a107-416234d548d8\"}", credential);
+        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+
+        EasyMock.replay(request, response);
+
+        servlet.doPost(request, response);
+
+        EasyMock.verify(request, response);
+    }
+
+    @Test
+    public void testOverriddenProcessOperation() throws SigningException, IOException {
+        HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        HttpServletResponse response = EasyMock.createMock(HttpServletResponse.class);
+
+        CredentialStore store = new CredentialStore();
+        Credential credential = new Credential("SECRETKEY", "KEYID");
+        store.add(credential);
+
+        final String bodyContent = "{\"operation\": \"Purchase\", \"purchaseToken\": \"token\"}";
+        PurchaseServletImpl servlet = new PurchaseServletImpl(store) {
+            @Override
+            public InstantAccessResponse<?> processOperation(InstantAccessOperationValue operation,
+                    String requestBody) throws SerializationException {
+                Assert.assertEquals(InstantAccessOperationValue.PURCHASE, operation);
+                Assert.assertEquals(bodyContent, requestBody);
+
+                FulfillPurchaseResponse fulfillResponse = new FulfillPurchaseResponse();
+                fulfillResponse.setResponse(FulfillPurchaseResponseValue.OK);
+                return fulfillResponse;
+            }
+        };
+
+        mockRequest(request, bodyContent, credential);
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
+        EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                output.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
+        });
+
+        response.setStatus(HttpServletResponse.SC_OK);
+
+        EasyMock.replay(request, response);
+
+        servlet.doPost(request, response);
+
+        EasyMock.verify(request, response);
+
+        Assert.assertEquals("{\"response\":\"OK\"}", output.toString());
+    }
 }
@@ -26,6 +26,7 @@ import org.easymock.EasyMock;
 import org.junit.Test;
 
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayOutputStream;
@@ -84,11 +85,23 @@ public class AccountLinkingServletTest extends InstantAccessServletTest {
         mockRequest(request, bodyContent, credential);
 
         final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
         EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
             @Override
             public void write(int b) throws IOException {
                 output.write(b);
             }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         response.setStatus(HttpServletResponse.SC_OK);
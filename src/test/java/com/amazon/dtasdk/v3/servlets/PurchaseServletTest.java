@@ -14,11 +14,17 @@
  */
 package com.amazon.dtasdk.v3.servlets;
 
+import com.amazon.dtasdk.base.InstantAccessOperationValue;
+import com.amazon.dtasdk.base.InstantAccessResponse;
 import com.amazon.dtasdk.base.SubscriptionResponse;
 import com.amazon.dtasdk.base.SubscriptionResponseValue;
+import com.amazon.dtasdk.serializer.SerializationException;
 import com.amazon.dtasdk.signature.Credential;
 import com.amazon.dtasdk.signature.CredentialStore;
 import com.amazon.dtasdk.signature.SigningException;
+import com.amazon.dtasdk.utils.KeyedSerialExecutor;
+import com.amazon.dtasdk.utils.ReplayCache;
+import com.amazon.dtasdk.utils.SingleFlight;
 import com.amazon.dtasdk.v2.serialization.messages.FulfillPurchaseResponseValue;
 import com.amazon.dtasdk.v2.serialization.messages.RevokePurchaseResponseValue;
 import com.amazon.dtasdk.v3.serialization.messages.FulfillPurchaseRequest;
@@ -35,10 +41,19 @@ import org.easymock.EasyMock;
 import org.junit.Test;
 
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Test class for InstantAccessServlet.
@@ -134,11 +149,23 @@ public class PurchaseServletTest extends InstantAccessServletTest {
         mockRequest(request, bodyContent, credential);
 
         final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
         EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
             @Override
             public void write(int b) throws IOException {
                 output.write(b);
             }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         response.setStatus(HttpServletResponse.SC_OK);
@@ -176,11 +203,23 @@ public class PurchaseServletTest extends InstantAccessServletTest {
         mockRequest(request, bodyContent, credential);
 
         final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
         EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
             @Override
             public void write(int b) throws IOException {
                 output.write(b);
             }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         response.setStatus(HttpServletResponse.SC_OK);
@@ -218,11 +257,23 @@ public class PurchaseServletTest extends InstantAccessServletTest {
         mockRequest(request, bodyContent, credential);
 
         final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
         EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
             @Override
             public void write(int b) throws IOException {
                 output.write(b);
             }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         response.setStatus(HttpServletResponse.SC_OK);
@@ -259,11 +310,23 @@ public class PurchaseServletTest extends InstantAccessServletTest {
         mockRequest(request, bodyContent, credential);
 
         final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
         EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
             @Override
             public void write(int b) throws IOException {
                 output.write(b);
             }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         response.setStatus(HttpServletResponse.SC_OK);
@@ -302,11 +365,23 @@ public class PurchaseServletTest extends InstantAccessServletTest {
         mockRequest(request, bodyContent, credential);
 
         final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
         EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
             @Override
             public void write(int b) throws IOException {
                 output.write(b);
             }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         response.setStatus(HttpServletResponse.SC_OK);
@@ -343,11 +418,23 @@ public class PurchaseServletTest extends InstantAccessServletTest {
         mockRequest(request, bodyContent, credential);
 
         final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
         EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
             @Override
             public void write(int b) throws IOException {
                 output.write(b);
             }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
         });
 
         response.setStatus(HttpServletResponse.SC_OK);
@@ -360,4 +447,231 @@ public class PurchaseServletTest extends InstantAccessServletTest {
 
         Assert.assertEquals("{\"response\":\"" + SUBSCRIPTION_ACTION_RESPONSE + "\"}", output.toString());
     }
+
+    @Test
+    public void testMissingOperation() throws SigningException, IOException {
+        HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        HttpServletResponse response = EasyMock.createMock(HttpServletResponse.class);
+
+        CredentialStore store = new CredentialStore();
+        Credential credential = new Credential("SECRETKEY", "KEYID");
+        store.add(credential);
+
+        PurchaseServletImpl servlet = new PurchaseServletImpl(store);
+
+        mockRequest(request, "{\"purchaseToken\": \"6f3092e5-0326-42b7-a107-416234d548d8\"}", credential);
+        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+
+        EasyMock.replay(request, response);
+
+        servlet.doPost(request, response);
+
+        EasyMock.verify(request, response);
+    }
+
+    @Test
+    public void testOverriddenProcessOperation() throws SigningException, IOException {
+        HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        HttpServletResponse response = EasyMock.createMock(HttpServletResponse.class);
+
+        CredentialStore store = new CredentialStore();
+        Credential credential = new Credential("SECRETKEY", "KEYID");
+        store.add(credential);
+
+        final String bodyContent = "{\"operation\": \"Purchase\", \"purchaseToken\": \"token\"}";
+        PurchaseServletImpl servlet = new PurchaseServletImpl(store) {
+            @Override
+            public InstantAccessResponse<?> processOperation(InstantAccessOperationValue operation,
+                    String requestBody) throws SerializationException {
+                Assert.assertEquals(InstantAccessOperationValue.PURCHASE, operation);
+                Assert.assertEquals(bodyContent, requestBody);
+
+                FulfillPurchaseResponse fulfillResponse = new FulfillPurchaseResponse();
+                fulfillResponse.setResponse(FulfillPurchaseResponseValue.OK);
+                return fulfillResponse;
+            }
+        };
+
+        mockRequest(request, bodyContent, credential);
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.setContentType("application/json");
+        response.setContentLength(EasyMock.anyInt());
+        EasyMock.expect(response.getOutputStream()).andReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                output.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
+        });
+
+        response.setStatus(HttpServletResponse.SC_OK);
+
+        EasyMock.replay(request, response);
+
+        servlet.doPost(request, response);
+
+        EasyMock.verify(request, response);
+
+        Assert.assertEquals("{\"response\":\"OK\"}", output.toString());
+    }
+
+    @Test
+    public void testReplayCache() throws Exception {
+        final ReplayCache<InstantAccessResponse<?>> replayCache = new ReplayCache<InstantAccessResponse<?>>();
+        final AtomicInteger fulfillCount = new AtomicInteger();
+        final AtomicInteger subscriptionCount = new AtomicInteger();
+
+        PurchaseServletImpl servlet = new PurchaseServletImpl(new CredentialStore()) {
+            @Override
+            protected ReplayCache<InstantAccessResponse<?>> getReplayCache() {
+                return replayCache;
+            }
+
+            @Override
+            public FulfillPurchaseResponse fulfillPurchase(FulfillPurchaseRequest request) {
+                fulfillCount.incrementAndGet();
+                return super.fulfillPurchase(request);
+            }
+
+            @Override
+            public SubscriptionGetResponse processSubscriptionGet(SubscriptionGetRequest request) {
+                subscriptionCount.incrementAndGet();
+                return super.processSubscriptionGet(request);
+            }
+
+            @Override
+            public SubscriptionResponse processSubscriptionUpdate(SubscriptionUpdateRequest request) {
+                subscriptionCount.incrementAndGet();
+                return super.processSubscriptionUpdate(request);
+            }
+        };
+
+        String purchase = "{\"operation\": \"Purchase\", \"purchaseToken\": \"token\"}";
+        InstantAccessResponse<?> purchaseResponse = servlet.processOperation(InstantAccessOperationValue.PURCHASE,
+                purchase);
+        Assert.assertSame(purchaseResponse, servlet.processOperation(InstantAccessOperationValue.PURCHASE, purchase));
+        Assert.assertEquals(1, fulfillCount.get());
+
+        // The subscription operations are not replayed, every retry reaches the handler
+        String get = "{\"operation\": \"SubscriptionGet\", \"subscriptionId\": \"subscription\"}";
+        String update = "{\"operation\": \"SubscriptionUpdate\", \"subscriptionId\": \"subscription\"}";
+        for (int i = 0; i < 2; ++i) {
+            Assert.assertEquals(SUBSCRIPTION_ACTION_RESPONSE,
+                    servlet.processOperation(InstantAccessOperationValue.SUBSCRIPTIONGET, get).getResponse());
+            Assert.assertEquals(SUBSCRIPTION_ACTION_RESPONSE,
+                    servlet.processOperation(InstantAccessOperationValue.SUBSCRIPTIONUPDATE, update).getResponse());
+        }
+        Assert.assertEquals(4, subscriptionCount.get());
+
+        Assert.assertEquals(1, replayCache.getHitCount());
+        Assert.assertEquals(1, replayCache.size());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        final SingleFlight<InstantAccessResponse<?>> singleFlight = new SingleFlight<InstantAccessResponse<?>>();
+        final AtomicInteger getCount = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final PurchaseServletImpl servlet = new PurchaseServletImpl(new CredentialStore()) {
+            @Override
+            protected SingleFlight<InstantAccessResponse<?>> getSingleFlight() {
+                return singleFlight;
+            }
+
+            @Override
+            public SubscriptionGetResponse processSubscriptionGet(SubscriptionGetRequest request) {
+                getCount.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.processSubscriptionGet(request);
+            }
+        };
+
+        Callable<InstantAccessResponse<?>> get = new Callable<InstantAccessResponse<?>>() {
+            @Override
+            public InstantAccessResponse<?> call() throws Exception {
+                return servlet.processOperation(InstantAccessOperationValue.SUBSCRIPTIONGET,
+                        "{\"operation\": \"SubscriptionGet\", \"subscriptionId\": \"subscription\"}");
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<InstantAccessResponse<?>> first = executor.submit(get);
+            started.await();
+            Future<InstantAccessResponse<?>> retry = executor.submit(get);
+            while (singleFlight.getSharedCount() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            Assert.assertSame(first.get(), retry.get());
+            Assert.assertEquals(SUBSCRIPTION_ACTION_RESPONSE, first.get().getResponse());
+            Assert.assertEquals(1, getCount.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSerialExecutor() throws Exception {
+        final KeyedSerialExecutor serialExecutor = new KeyedSerialExecutor();
+        final CompletableFuture<SubscriptionResponse> update = new CompletableFuture<SubscriptionResponse>();
+        final AtomicInteger getCount = new AtomicInteger();
+
+        PurchaseServletImpl servlet = new PurchaseServletImpl(new CredentialStore()) {
+            @Override
+            protected KeyedSerialExecutor getSerialExecutor() {
+                return serialExecutor;
+            }
+
+            @Override
+            public CompletionStage<SubscriptionResponse> processSubscriptionUpdateAsync(
+                    SubscriptionUpdateRequest request) {
+                return update;
+            }
+
+            @Override
+            public SubscriptionGetResponse processSubscriptionGet(SubscriptionGetRequest request) {
+                getCount.incrementAndGet();
+                return super.processSubscriptionGet(request);
+            }
+        };
+
+        String updateBody = "{\"operation\": \"SubscriptionUpdate\", \"subscriptionId\": \"%s\"}";
+        String getBody = "{\"operation\": \"SubscriptionGet\", \"subscriptionId\": \"%s\"}";
+
+        servlet.processOperationAsync(InstantAccessOperationValue.SUBSCRIPTIONUPDATE,
+                String.format(updateBody, "subscription1"));
+        CompletionStage<? extends InstantAccessResponse<?>> getResult = servlet.processOperationAsync(
+                InstantAccessOperationValue.SUBSCRIPTIONGET, String.format(getBody, "subscription1"));
+
+        // The get waits for the update of its subscription, the ones of other subscriptions run
+        servlet.processOperation(InstantAccessOperationValue.SUBSCRIPTIONGET, String.format(getBody, "subscription2"));
+        Assert.assertEquals(1, getCount.get());
+        Assert.assertFalse(getResult.toCompletableFuture().isDone());
+
+        SubscriptionResponse updateResponse = new SubscriptionResponse();
+        updateResponse.setResponse(SUBSCRIPTION_ACTION_RESPONSE);
+        update.complete(updateResponse);
+
+        Assert.assertEquals(SUBSCRIPTION_ACTION_RESPONSE, getResult.toCompletableFuture().get().getResponse());
+        Assert.assertEquals(2, getCount.get());
+    }
 }